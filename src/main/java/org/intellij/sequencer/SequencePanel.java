@@ -1,17 +1,29 @@
 package org.intellij.sequencer;
 
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.impl.BackgroundableProcessIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.EmptyRunnable;
 import com.intellij.openapi.ui.DialogWrapper;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiMethod;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.ui.components.JBScrollBar;
 import com.intellij.ui.components.JBScrollPane;
+import com.intellij.util.Alarm;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
 import icons.SequencePluginIcons;
 import org.intellij.sequencer.diagram.*;
 import org.intellij.sequencer.generator.CallStack;
+import org.intellij.sequencer.generator.SequenceBinaryFormat;
 import org.intellij.sequencer.generator.SequenceGenerator;
 import org.intellij.sequencer.generator.SequenceParams;
 import org.intellij.sequencer.generator.filters.*;
@@ -25,12 +37,13 @@ import javax.swing.plaf.basic.BasicButtonUI;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.*;
 import java.util.List;
-import java.util.Objects;
+import java.util.function.Function;
+
+public class SequencePanel extends JPanel implements Disposable {
+    private static final int UPDATE_DELAY = 500;
 
-public class SequencePanel extends JPanel {
     //private static final Logger LOGGER = Logger.getInstance(SequencePanel.class.getName());
 
     private final Display _display;
@@ -40,6 +53,15 @@ public class SequencePanel extends JPanel {
     private PsiElement psiElement;
     private String _titleName;
     private final JScrollPane _jScrollPane;
+    private ProgressIndicator _generateIndicator;
+    private CallStack _callStack;
+    private final Set<String> _callStackClasses = new HashSet<>();
+    private Disposable _liveUpdate;
+    private final Alarm _updateAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+    private final Set<PsiMethod> _changedMethods = new HashSet<>();
+    private boolean _changedStructure;
+    private final Set<PsiMethod> _generatingMethods = new HashSet<>();
+    private boolean _generatingAll;
 
     public SequencePanel(SequenceNavigable navigable, PsiElement psiMethod, SequenceParams sequenceParams) {
         super(new BorderLayout());
@@ -58,6 +80,7 @@ public class SequencePanel extends JPanel {
 
         DefaultActionGroup actionGroup = new DefaultActionGroup("SequencerActionGroup", false);
         actionGroup.add(new ReGenerateAction());
+        actionGroup.add(new LiveUpdateAction());
         actionGroup.add(new ExportAction());
         actionGroup.add(new SaveAsAction());
         actionGroup.add(new LoadAction());
@@ -84,21 +107,202 @@ public class SequencePanel extends JPanel {
         return _model;
     }
 
-    private void generate(String query) {
-//        LOGGER.debug("sequence = " + query);
-        _model.setText(query, this);
+    private void generate(CallStack callStack) {
+        _model.setCallStack(callStack, this);
         _display.invalidate();
     }
 
     public void generate() {
+        generate(EmptyRunnable.getInstance());
+    }
+
+    /**
+     * Generate the diagram in background, the PSI is walked in a non-blocking read action
+     * and only the finished {@link CallStack} is handed back to the EDT.
+     *
+     * @param postAction run on the EDT once the diagram is displayed
+     */
+    public void generate(@NotNull Runnable postAction) {
         if (psiElement == null || !psiElement.isValid() || !(psiElement instanceof PsiMethod)) {
             psiElement = null;
             return;
         }
-        SequenceGenerator generator = new SequenceGenerator(_sequenceParams);
-        final CallStack callStack = generator.generate((PsiMethod) psiElement);
-        _titleName = callStack.getMethod().getTitleName();
-        generate(callStack.generateSequence());
+        final PsiMethod psiMethod = (PsiMethod) psiElement;
+        _generatingAll = true;
+        _generatingMethods.clear();
+        generate(psiMethod.getProject(), generator -> generator.generate(psiMethod), postAction);
+    }
+
+    private void generate(Project project, Function<SequenceGenerator, CallStack> generation, Runnable postAction) {
+        if (_generateIndicator != null)
+            _generateIndicator.cancel();
+
+        Task.Backgroundable task = new Task.Backgroundable(project, "Generating sequence diagram", true) {
+            private CallStack callStack;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                // a read action cancelled by a write action is run again, with a new generator each time
+                callStack = ReadAction.nonBlocking(() -> generation.apply(new SequenceGenerator(_sequenceParams)))
+                        .wrapProgress(indicator)
+                        .executeSynchronously();
+            }
+
+            @Override
+            public void onSuccess() {
+                if (callStack == null || callStack == _callStack)
+                    return;
+                _callStack = callStack;
+                _callStackClasses.clear();
+                collectClasses(callStack);
+                _titleName = callStack.getMethod().getTitleName();
+                generate(callStack);
+                postAction.run();
+            }
+        };
+        _generateIndicator = new BackgroundableProcessIndicator(task);
+        ProgressManager.getInstance().runProcessWithProgressAsynchronously(task, _generateIndicator);
+    }
+
+    /**
+     * Generate again the parts of the diagram touched by the PSI changes collected since the last update.
+     * Changes outside of method bodies of a class in the diagram may change what calls resolve to,
+     * the whole diagram is generated then. Changes in other classes are not collected.
+     */
+    private void update() {
+        if (psiElement == null || !psiElement.isValid()) {
+            return;
+        }
+        final List<PsiMethod> changedMethods = new ArrayList<>(_changedMethods);
+        boolean changedStructure = _changedStructure || _callStack == null;
+        _changedMethods.clear();
+        _changedStructure = false;
+
+        // the running generation is about to be cancelled, its changes are applied by this one
+        if (_generateIndicator != null && _generateIndicator.isRunning()) {
+            changedStructure |= _generatingAll;
+            changedMethods.addAll(_generatingMethods);
+        }
+        for (PsiMethod changedMethod : changedMethods) {
+            if (!changedMethod.isValid())
+                changedStructure = true;
+        }
+        if (changedStructure) {
+            generate();
+        } else if (!changedMethods.isEmpty()) {
+            _generatingAll = false;
+            _generatingMethods.clear();
+            _generatingMethods.addAll(changedMethods);
+            final CallStack callStack = _callStack;
+            generate(psiElement.getProject(), generator -> generator.regenerate(callStack, changedMethods), EmptyRunnable.getInstance());
+        }
+    }
+
+    private void collectClasses(CallStack callStack) {
+        _callStackClasses.add(callStack.getMethod().getClassDescription().getClassName());
+        for (CallStack call : callStack.getCalls()) {
+            collectClasses(call);
+        }
+    }
+
+    /**
+     * @return true if the change is in a class of the diagram, or the diagram is not generated yet
+     */
+    private boolean isInCallStack(PsiTreeChangeEvent event) {
+        if (_callStack == null)
+            return true;
+        if (event.getParent() instanceof PsiJavaFile) {
+            // imports and top level classes, every class of the file may resolve differently
+            for (PsiClass psiClass : ((PsiJavaFile) event.getParent()).getClasses()) {
+                if (isInCallStack(psiClass))
+                    return true;
+            }
+            return isInCallStack(event.getChild()) || isInCallStack(event.getOldChild());
+        }
+        return isInCallStack(event.getParent());
+    }
+
+    private boolean isInCallStack(PsiElement element) {
+        PsiClass psiClass = PsiTreeUtil.getParentOfType(element, PsiClass.class, false);
+        while (psiClass != null) {
+            // the methods of local and anonymous classes are part of their enclosing class
+            if (psiClass.getQualifiedName() != null)
+                return _callStackClasses.contains(psiClass.getQualifiedName());
+            psiClass = PsiTreeUtil.getParentOfType(psiClass, PsiClass.class, true);
+        }
+        return false;
+    }
+
+    private void psiChanged(PsiTreeChangeEvent event) {
+        if (!(event.getFile() instanceof PsiJavaFile) || !isInCallStack(event))
+            return;
+        PsiElement element = event.getParent();
+        PsiMethod psiMethod = PsiTreeUtil.getParentOfType(element, PsiMethod.class, false);
+        // the method of a local or anonymous class is generated with its enclosing method
+        PsiMethod enclosingMethod = psiMethod;
+        while (enclosingMethod != null) {
+            psiMethod = enclosingMethod;
+            enclosingMethod = PsiTreeUtil.getParentOfType(psiMethod, PsiMethod.class, true);
+        }
+
+        if (psiMethod == null || !PsiTreeUtil.isAncestor(psiMethod.getBody(), element, false)
+                || (psiMethod.isConstructor() && _sequenceParams.isSmartInterface())) {
+            _changedStructure = true;
+        } else {
+            _changedMethods.add(psiMethod);
+        }
+        _updateAlarm.cancelAllRequests();
+        _updateAlarm.addRequest(this::update, UPDATE_DELAY);
+    }
+
+    private void setLiveUpdate(boolean liveUpdate) {
+        if (liveUpdate == (_liveUpdate != null))
+            return;
+        if (liveUpdate) {
+            _liveUpdate = Disposer.newDisposable();
+            Disposer.register(this, _liveUpdate);
+            PsiManager.getInstance(psiElement.getProject()).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+                @Override
+                public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                    psiChanged(event);
+                }
+
+                @Override
+                public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                    psiChanged(event);
+                }
+
+                @Override
+                public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                    psiChanged(event);
+                }
+
+                @Override
+                public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                    psiChanged(event);
+                }
+
+                @Override
+                public void childMoved(@NotNull PsiTreeChangeEvent event) {
+                    psiChanged(event);
+                }
+            }, _liveUpdate);
+        } else {
+            Disposer.dispose(_liveUpdate);
+            _liveUpdate = null;
+            _updateAlarm.cancelAllRequests();
+            _changedMethods.clear();
+            _changedStructure = false;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (_generateIndicator != null)
+            _generateIndicator.cancel();
+        _changedMethods.clear();
+        _generatingMethods.clear();
     }
 
     private void showBirdView() {
@@ -248,6 +452,28 @@ public class SequencePanel extends JPanel {
         }
     }
 
+    private class LiveUpdateAction extends ToggleAction {
+        public LiveUpdateAction() {
+            super("Live Update", "Update diagram while editing", AllIcons.General.AutoscrollFromSource);
+        }
+
+        @Override
+        public boolean isSelected(@NotNull AnActionEvent e) {
+            return _liveUpdate != null;
+        }
+
+        @Override
+        public void setSelected(@NotNull AnActionEvent e, boolean state) {
+            setLiveUpdate(state);
+        }
+
+        @Override
+        public void update(@NotNull AnActionEvent e) {
+            super.update(e);
+            e.getPresentation().setEnabled(psiElement != null);
+        }
+    }
+
     private class ExportAction extends AnAction {
         public ExportAction() {
             super("Export", "Export image to file", SequencePluginIcons.EXPORT_ICON);
@@ -256,21 +482,21 @@ public class SequencePanel extends JPanel {
         public void actionPerformed(@NotNull AnActionEvent event) {
             JFileChooser fileChooser = new JFileChooser();
             fileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
-            fileChooser.setFileFilter(new FileFilter() {
-                public boolean accept(File f) {
-                    return f.isDirectory() || f.getName().endsWith("png");
-                }
-
-                public String getDescription() {
-                    return "PNG Images";
-                }
-            });
+            SequenceFileFilter pngFilter = new SequenceFileFilter("png", "PNG Images");
+            SequenceFileFilter svgFilter = new SequenceFileFilter("svg", "SVG Images");
+            fileChooser.addChoosableFileFilter(pngFilter);
+            fileChooser.addChoosableFileFilter(svgFilter);
+            fileChooser.setFileFilter(pngFilter);
             try {
                 if (fileChooser.showSaveDialog(SequencePanel.this) == JFileChooser.APPROVE_OPTION) {
                     File selectedFile = fileChooser.getSelectedFile();
-                    if (!selectedFile.getName().endsWith("png"))
-                        selectedFile = new File(selectedFile.getParentFile(), selectedFile.getName() + ".png");
-                    _display.saveImageToFile(selectedFile);
+                    String extension = fileChooser.getFileFilter() == svgFilter ? svgFilter.getExtension() : pngFilter.getExtension();
+                    if (!selectedFile.getName().endsWith(extension))
+                        selectedFile = new File(selectedFile.getParentFile(), selectedFile.getName() + "." + extension);
+                    if (svgFilter.getExtension().equals(extension))
+                        _display.saveSvgToFile(selectedFile);
+                    else
+                        _display.saveImageToFile(selectedFile);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -286,7 +512,7 @@ public class SequencePanel extends JPanel {
 
     private class LoadAction extends AnAction {
         public LoadAction() {
-            super("Open Diagram", "Open SequenceDiagram text (.sdt) file", SequencePluginIcons.EXPORT_TEXT_ICON);
+            super("Open Diagram", "Open SequenceDiagram (.sdt, .sdb) file", SequencePluginIcons.EXPORT_TEXT_ICON);
         }
 
         @Override
@@ -294,15 +520,7 @@ public class SequencePanel extends JPanel {
             final JFileChooser chooser = new JFileChooser();
             chooser.setDialogType(JFileChooser.OPEN_DIALOG);
             chooser.setDialogTitle("Open Diagram");
-            chooser.setFileFilter(new FileFilter() {
-                public boolean accept(File f) {
-                    return f.isDirectory() || f.getName().endsWith("sdt");
-                }
-
-                public String getDescription() {
-                    return "SequenceDiagram (.sdt) File";
-                }
-            });
+            chooser.setFileFilter(new SequenceFileFilter(null, "SequenceDiagram (.sdt, .sdb) File"));
             int returnVal = chooser.showOpenDialog(SequencePanel.this);
             if(returnVal == JFileChooser.APPROVE_OPTION) {
                 File file = chooser.getSelectedFile();
@@ -341,22 +559,21 @@ public class SequencePanel extends JPanel {
         public void actionPerformed(@NotNull AnActionEvent event) {
             JFileChooser fileChooser = new JFileChooser();
             fileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
-            fileChooser.setFileFilter(new FileFilter() {
-                public boolean accept(File f) {
-                    return f.isDirectory() || f.getName().endsWith("sdt");
-                }
-
-                public String getDescription() {
-                    return "SequenceDiagram (.sdt) File";
-                }
-            });
+            SequenceFileFilter textFilter = new SequenceFileFilter("sdt", "SequenceDiagram (.sdt) File");
+            SequenceFileFilter binaryFilter = new SequenceFileFilter(SequenceBinaryFormat.EXTENSION, "SequenceDiagram binary (.sdb) File");
+            fileChooser.addChoosableFileFilter(textFilter);
+            fileChooser.addChoosableFileFilter(binaryFilter);
+            fileChooser.setFileFilter(textFilter);
             try {
                 if (fileChooser.showSaveDialog(SequencePanel.this) == JFileChooser.APPROVE_OPTION) {
                     File selectedFile = fileChooser.getSelectedFile();
-                    if (!selectedFile.getName().endsWith("sdt"))
-                        selectedFile = new File(selectedFile.getParentFile(), selectedFile.getName() + ".sdt");
+                    String extension = fileChooser.getFileFilter() == binaryFilter ? binaryFilter.getExtension() : textFilter.getExtension();
+                    if (!selectedFile.getName().endsWith(extension))
+                        selectedFile = new File(selectedFile.getParentFile(), selectedFile.getName() + "." + extension);
 
-                    _model.writeToFile(selectedFile);
+                    if (!_model.writeToFile(selectedFile))
+                        Messages.showErrorDialog(SequencePanel.this, "Cannot save the diagram to " + selectedFile.getName()
+                                + ", it is not a single generated call stack or the file cannot be written.", "Save As");
 //                    generateTextFile(selectedFile);
                 }
             } catch (Exception e) {
@@ -371,6 +588,35 @@ public class SequencePanel extends JPanel {
         }
     }
 
+    private static class SequenceFileFilter extends FileFilter {
+        private final String _extension;
+        private final String _description;
+
+        /**
+         * @param extension file extension, null to accept both the text and the binary format
+         */
+        SequenceFileFilter(String extension, String description) {
+            _extension = extension;
+            _description = description;
+        }
+
+        String getExtension() {
+            return _extension;
+        }
+
+        public boolean accept(File f) {
+            if (f.isDirectory())
+                return true;
+            if (_extension == null)
+                return f.getName().endsWith("sdt") || f.getName().endsWith(SequenceBinaryFormat.EXTENSION);
+            return f.getName().endsWith(_extension);
+        }
+
+        public String getDescription() {
+            return _description;
+        }
+    }
+
     private class GotoSourceAction extends AnAction {
         private final ScreenObject _screenObject;
 
@@ -46,6 +46,7 @@ public class SequenceToolWindowsFactory implements ToolWindowFactory {
         SequencePanel sequencePanel = new SequencePanel(null,null, new SequenceParams());
         ContentManager contentManager = toolWindow.getContentManager();
         Content emptyDiagram = contentManager.getFactory().createContent(sequencePanel, "Open...", false);
+        emptyDiagram.setDisposer(sequencePanel);
         contentManager.addContent(emptyDiagram);
 
         sequencePanel.getModel().addModelTextListener(mte -> emptyDiagram.setDisplayName(sequencePanel.getTitleName()));
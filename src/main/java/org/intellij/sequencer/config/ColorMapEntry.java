@@ -41,14 +41,18 @@ public class ColorMapEntry {
 
     public boolean matches(String fullName) {
         if(matcher==null) {
-            // simply pattern to actual regex
-            String regex = getRegex().replace(".", "\\.").replace("*", ".*");
+            Pattern pattern = Pattern.compile(toRegex(getRegex()));
 //            matcher = Pattern.compile(regex).asMatchPredicate();
-            matcher = t -> Pattern.compile(regex).matcher(t).matches();
+            matcher = t -> pattern.matcher(t).matches();
         }
         if(fullName==null) {
             return false;
         }
         return matcher.test(fullName);
     }
+
+    static String toRegex(String pattern) {
+        // simply pattern to actual regex
+        return pattern.replace(".", "\\.").replace("*", ".*");
+    }
 }
@@ -0,0 +1,144 @@
+package org.intellij.sequencer.config;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The color mappings of a configuration compiled for lookups by class name, the first matching mapping wins.
+ * Plain names, optionally ending with '*' as in <code>com.foo.*</code>, are kept in a prefix trie,
+ * the other patterns are compiled once to regular expressions. The results are cached per class name
+ * until the configuration changes, the translucent colors painted over the headers once per mapping.
+ */
+class ColorMapping {
+    // the characters making a regex of a pattern more than a plain name, see ColorMapEntry.toRegex()
+    private static final String REGEX_CHARACTERS = "\\^$|?+()[]{}";
+    private static final float TRANSLUCENT_ALPHA = 0.8f;
+    private static final int NO_MAPPING = -1;
+
+    private static volatile ColorMapping _current;
+
+    private final Configuration _configuration;
+    private final List<ColorMapEntry> _mappingList;
+    private final int _version;
+    private final ColorMapEntry[] _entries;
+    private final Color[] _translucentColors;
+    private final Node _root = new Node();
+    private final List<Integer> _patternIndexes = new ArrayList<>();
+    private final List<Pattern> _patterns = new ArrayList<>();
+    // index of the mapping per class name, or NO_MAPPING
+    private final Map<String, Integer> _results = new ConcurrentHashMap<>();
+
+    private ColorMapping(Configuration configuration) {
+        _configuration = configuration;
+        _version = configuration.getVersion();
+        _mappingList = configuration.getColorMappingList();
+        _entries = _mappingList == null ? new ColorMapEntry[0] : _mappingList.toArray(new ColorMapEntry[0]);
+        _translucentColors = new Color[_entries.length];
+        for (int i = 0; i < _entries.length; i++) {
+            Color color = _entries[i].getColor();
+            if (color != null)
+                _translucentColors[i] = ColorSupport.withTransparency(color, TRANSLUCENT_ALPHA);
+            String pattern = _entries[i].getRegex();
+            if (pattern == null)
+                continue;
+            if (isPlainName(pattern)) {
+                boolean prefix = pattern.endsWith("*");
+                Node node = _root.get(prefix ? pattern.substring(0, pattern.length() - 1) : pattern);
+                if (prefix)
+                    node.prefixIndex = Math.min(node.prefixIndex, i);
+                else
+                    node.exactIndex = Math.min(node.exactIndex, i);
+            } else {
+                try {
+                    _patterns.add(Pattern.compile(ColorMapEntry.toRegex(pattern)));
+                    _patternIndexes.add(i);
+                } catch (PatternSyntaxException e) {
+                    // matches nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the compiled mappings of the configuration, compiled again when it changed
+     */
+    static ColorMapping of(Configuration configuration) {
+        ColorMapping current = _current;
+        if (current == null || current._configuration != configuration || current._version != configuration.getVersion()
+                || current._mappingList != configuration.getColorMappingList()) {
+            current = new ColorMapping(configuration);
+            _current = current;
+        }
+        return current;
+    }
+
+    Optional<Paint> lookup(String fullName) {
+        int index = indexOf(fullName);
+        return index == NO_MAPPING ? Optional.empty() : Optional.ofNullable(_entries[index].getColor());
+    }
+
+    /**
+     * @return the mapped color made translucent, or null if there is none
+     */
+    Color lookupTranslucent(String fullName) {
+        int index = indexOf(fullName);
+        return index == NO_MAPPING ? null : _translucentColors[index];
+    }
+
+    private int indexOf(String fullName) {
+        if (fullName == null)
+            return NO_MAPPING;
+        return _results.computeIfAbsent(fullName, this::find);
+    }
+
+    private int find(String fullName) {
+        int first = Integer.MAX_VALUE;
+        Node node = _root;
+        for (int i = 0; node != null; i++) {
+            first = Math.min(first, node.prefixIndex);
+            if (i == fullName.length()) {
+                first = Math.min(first, node.exactIndex);
+                break;
+            }
+            node = node.children.get(fullName.charAt(i));
+        }
+        // only the patterns before the best plain name can win
+        for (int i = 0; i < _patterns.size() && _patternIndexes.get(i) < first; i++) {
+            if (_patterns.get(i).matcher(fullName).matches()) {
+                first = _patternIndexes.get(i);
+                break;
+            }
+        }
+        return first == Integer.MAX_VALUE ? NO_MAPPING : first;
+    }
+
+    private static boolean isPlainName(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (REGEX_CHARACTERS.indexOf(c) >= 0 || (c == '*' && i != pattern.length() - 1))
+                return false;
+        }
+        return true;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private int prefixIndex = Integer.MAX_VALUE;
+        private int exactIndex = Integer.MAX_VALUE;
+
+        Node get(String name) {
+            Node node = this;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.children.computeIfAbsent(name.charAt(i), c -> new Node());
+            }
+            return node;
+        }
+    }
+}
@@ -9,21 +9,19 @@ import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.List;
 import java.util.Optional;
 
 public class ColorSupport {
 
     public static Optional<Paint> lookupMappedColorFor(Configuration configuration, String fullName) {
-        final List<ColorMapEntry> colorMappings = configuration.getColorMappingList();
-        if(colorMappings!=null) {
-            return configuration.getColorMappingList()
-                    .stream()
-                    .filter(entry->entry.matches(fullName))
-                    .findFirst()
-                    .map(ColorMapEntry::getColor);
-        }
-        return Optional.empty();
+        return ColorMapping.of(configuration).lookup(fullName);
+    }
+
+    /**
+     * @return the mapped color of the class made translucent to paint over its header, or null if there is none
+     */
+    public static Color lookupTranslucentMappedColorFor(Configuration configuration, String fullName) {
+        return ColorMapping.of(configuration).lookupTranslucent(fullName);
     }
 
     public static Color withTransparency(Color c, float alpha) {
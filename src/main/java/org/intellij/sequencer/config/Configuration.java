@@ -37,6 +37,8 @@ public class Configuration implements PersistentStateComponent<Configuration> {
 
     @Transient
     private final List<ConfigListener> _listeners = new ArrayList<>();
+    @Transient
+    private volatile int _version;
     private java.util.List<ExcludeEntry> _excludeList = new Vector<>();
     private java.util.List<ColorMapEntry> _colorMappingList = new Vector<>();
 
@@ -70,7 +72,16 @@ public class Configuration implements PersistentStateComponent<Configuration> {
         this._colorMappingList = colorMappingList;
     }
 
+    /**
+     * @return a number changed with every change of the configuration, to invalidate what is derived from it
+     */
+    @Transient
+    public int getVersion() {
+        return _version;
+    }
+
     public void fireConfigChanged() {
+        _version++;
         for (ConfigListener configListener : _listeners) {
             configListener.configChanged();
         }
@@ -85,6 +96,7 @@ public class Configuration implements PersistentStateComponent<Configuration> {
     @Override
     public void loadState(@NotNull Configuration configuration) {
         XmlSerializerUtil.copyBean(configuration, this);
+        _version++;
     }
 
 
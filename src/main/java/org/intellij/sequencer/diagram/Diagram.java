@@ -1,17 +1,27 @@
 package org.intellij.sequencer.diagram;
 
 import org.apache.log4j.Logger;
+import org.intellij.sequencer.generator.CallStack;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Diagram {
     private static final Logger LOGGER = Logger.getLogger(Diagram.class);
+    private static final int GRID_CELL_SIZE = 64;
+    // the arrow head and selection below the line of a link, see DisplayLink.getEndY()
+    private static final int LINK_ARROW_HEIGHT = 4;
 
     private List<DisplayObject> _objectLifeLines = new ArrayList<>();
     private List<DisplayLink> _links = new ArrayList<>();
+    private Dimension _size = new Dimension();
+    private ScreenObjectGrid<DisplayObject> _objectGrid;
+    private ScreenObjectGrid<DisplayObject> _methodGrid;
+    private ScreenObjectGrid<DisplayLink> _linkGrid;
 
     public Diagram() {
     }
@@ -19,6 +29,7 @@ public class Diagram {
     public void build(String queryString) {
         _objectLifeLines = new ArrayList<>();
         _links = new ArrayList<>();
+        _objectGrid = null;
 
         Parser p = new Parser();
         try {
@@ -28,6 +39,21 @@ public class Diagram {
             return;
         }
 
+        build(p);
+    }
+
+    public void build(CallStack callStack) {
+        _objectLifeLines = new ArrayList<>();
+        _links = new ArrayList<>();
+        _objectGrid = null;
+
+        Parser p = new Parser();
+        p.parse(callStack);
+
+        build(p);
+    }
+
+    private void build(Parser p) {
         List<ObjectInfo> theObjects = p.getObjects();
         for (ObjectInfo objectInfo : theObjects) {
             _objectLifeLines.add(new DisplayObject(objectInfo));
@@ -74,23 +100,31 @@ public class Diagram {
         }
     }
 
-    public Dimension layoutObjects(Graphics2D g2, int inset) {
+    /**
+     * Lay out the diagram for the text measured with the font and context, it needs no graphics
+     * and so can run off the EDT.
+     */
+    public Dimension layoutObjects(Font font, FontRenderContext frc, int inset) {
         int x = inset;
         int y = inset;
         for (DisplayObject displayObject : _objectLifeLines) {
             displayObject.setX(x);
             displayObject.setY(y);
-            displayObject.initializeGraphics(g2);
+            displayObject.initializeGraphics(font, frc);
             x += displayObject.getWidth() + inset;
         }
 
-        int maxX = 200;
+        // a gap too small moves all the lifelines after the left one of the call to the right,
+        // the moves are summed up per lifeline and applied once all the calls are laid out
+        LifeLineIncrements increments = new LifeLineIncrements(_objectLifeLines.size());
         for(int i = 0; i < _objectLifeLines.size(); ++i) {
             DisplayObject obj = _objectLifeLines.get(i);
             if(LOGGER.isDebugEnabled())
                 LOGGER.debug("Laying out " + obj);
             for (DisplayLink call : obj.getCalls()) {
                 int availableGap;
+                int left;
+                int right;
                 if (call.isSelfCall()) {
                     if (i == _objectLifeLines.size() - 1) {
                         int width = obj.getWidth();
@@ -100,23 +134,29 @@ public class Diagram {
                     } else {
                         availableGap = obj.calcCurrentGap(
                                 _objectLifeLines.get(i + 1), call.getSeq());
+                        left = i;
+                        right = i + 1;
                     }
                 } else {
                     availableGap = obj.calcCurrentGap(call.getTo(), call.getSeq());
+                    left = Math.min(i, call.getTo().getSeq());
+                    right = Math.max(i, call.getTo().getSeq());
                 }
+                availableGap += increments.sum(left, right);
 
                 if (availableGap < call.getTextWidth()) {
                     int offset = call.getTextWidth() - availableGap;
                     if (LOGGER.isDebugEnabled())
                         LOGGER.debug("gap too small by " + offset);
-                    int startJ = i + 1;
-                    if (call.getTo().getSeq() < startJ)
-                        startJ = call.getTo().getSeq() + 1;
-                    for (int j = startJ; j < _objectLifeLines.size(); ++j) {
-                        (_objectLifeLines.get(j)).translate(offset);
-                    }
+                    increments.add(left, offset);
                 }
             }
+        }
+
+        int maxX = 200;
+        for (int j = 0; j < _objectLifeLines.size(); ++j) {
+            DisplayObject obj = _objectLifeLines.get(j);
+            obj.translate(increments.sum(0, j));
             maxX = obj.getX() + 2 * obj.getWidth() + inset;
         }
 
@@ -131,7 +171,32 @@ public class Diagram {
         }
         y += 10;
         calculateFullSize(y);
-        return new Dimension(maxX, y);
+        buildGrids();
+        _size = new Dimension(maxX, y);
+        return new Dimension(_size);
+    }
+
+    /**
+     * Index the laid out lifelines, activation bars and calls for {@link #findScreenObjectByXY(int, int)}.
+     */
+    private void buildGrids() {
+        _objectGrid = new ScreenObjectGrid<>(_objectLifeLines, GRID_CELL_SIZE, GRID_CELL_SIZE);
+
+        // the bars are searched by the lifelines themselves, only their columns are indexed
+        List<DisplayObject> withMethods = new ArrayList<>();
+        for (DisplayObject displayObject : _objectLifeLines) {
+            if (displayObject.getMethodsBounds() != null)
+                withMethods.add(displayObject);
+        }
+        _methodGrid = new ScreenObjectGrid<>(withMethods, GRID_CELL_SIZE, Integer.MAX_VALUE,
+                DisplayObject::getMethodsBounds);
+
+        List<DisplayLink> calls = new ArrayList<>();
+        for (DisplayLink displayLink : _links) {
+            if (!displayLink.isReturnLink())
+                calls.add(displayLink);
+        }
+        _linkGrid = new ScreenObjectGrid<>(calls, GRID_CELL_SIZE, GRID_CELL_SIZE);
     }
 
     private void calculateFullSize(int height) {
@@ -159,10 +224,14 @@ public class Diagram {
     }
 
     public ScreenObject findScreenObjectByXY(int x, int y) {
-        DisplayMethod selectedMethodBox = null;
-        for (DisplayObject displayObject : _objectLifeLines) {
+        if (_objectGrid == null)
+            return null;
+        for (DisplayObject displayObject : _objectGrid.find(x, y)) {
             if (displayObject.isInRange(x, y))
                 return displayObject;
+        }
+        DisplayMethod selectedMethodBox = null;
+        for (DisplayObject displayObject : _methodGrid.find(x, y)) {
             DisplayMethod methodBox = displayObject.findMethod(x, y);
             if (methodBox != null) {
                 if (selectedMethodBox == null || selectedMethodBox.getX() < methodBox.getX()) {
@@ -171,9 +240,7 @@ public class Diagram {
             }
         }
         if(selectedMethodBox == null) {
-            for (DisplayLink displayLink : _links) {
-                if (displayLink.isReturnLink())
-                    continue;
+            for (DisplayLink displayLink : _linkGrid.find(x, y)) {
                 if (displayLink.isInRange(x, y))
                     return displayLink;
             }
@@ -182,10 +249,49 @@ public class Diagram {
     }
 
     public void paint(Graphics2D g2) {
-        int max = _objectLifeLines.size();
+        int fromSeq = 0;
+        int toSeq = Integer.MAX_VALUE;
+        Rectangle clipBounds = g2.getClipBounds();
+        if (clipBounds != null && !_links.isEmpty()) {
+            fromSeq = firstLinkEndingBelow(clipBounds.y);
+            toSeq = firstLinkStartingBelow(clipBounds.y + clipBounds.height) - 1;
+        }
         for (DisplayObject displayObject : _objectLifeLines) {
-            displayObject.paint(g2);
+            displayObject.paint(g2, fromSeq, toSeq);
+        }
+    }
+
+    /**
+     * @return the sequence of the first link painted down to y or below, a link is painted above the next one
+     * but for its arrow head
+     */
+    private int firstLinkEndingBelow(int y) {
+        int low = 0;
+        int high = _links.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            DisplayLink link = _links.get(middle);
+            int bottom = middle + 1 < _links.size() ? _links.get(middle + 1).getY()
+                    : link.getY() + link.getTextHeight() + link.getLinkHeight();
+            if (bottom + LINK_ARROW_HEIGHT < y)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private int firstLinkStartingBelow(int y) {
+        int low = 0;
+        int high = _links.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_links.get(middle).getY() <= y)
+                low = middle + 1;
+            else
+                high = middle;
         }
+        return low;
     }
 
     public void paintHeader(Graphics2D g2) {
@@ -195,6 +301,23 @@ public class Diagram {
         }
     }
 
+    List<DisplayObject> getObjectLifeLines() {
+        return _objectLifeLines;
+    }
+
+    /**
+     * Write the laid out diagram as SVG, with the headers of the lifelines above it as in an exported image.
+     * Nothing is rasterized, the colors and fonts come from the configuration of the IDE.
+     *
+     * @param background color of the image, or null to leave it transparent
+     */
+    public void writeSvg(Writer writer, Color background) throws IOException {
+        Dimension headerSize = getPreferredHeaderSize();
+        int width = isSingleObject() ? _size.width : Math.min(headerSize.width, _size.width);
+        Dimension size = new Dimension(width, headerSize.height + _size.height);
+        new DiagramSvgWriter(writer).write(this, size, background);
+    }
+
     public boolean isSingleObject() {
         return _objectLifeLines.size() <= 1;
     }
@@ -206,4 +329,37 @@ public class Diagram {
     public boolean nonEmpty() {
         return ! isEmpty();
     }
+
+    /**
+     * Fenwick tree of the increments between adjacent lifelines, the increment of index k
+     * moves apart lifeline k and lifeline k + 1.
+     */
+    private static class LifeLineIncrements {
+        private final int[] _tree;
+
+        LifeLineIncrements(int size) {
+            _tree = new int[size + 1];
+        }
+
+        void add(int index, int increment) {
+            for (int i = index + 1; i < _tree.length; i += i & -i) {
+                _tree[i] += increment;
+            }
+        }
+
+        /**
+         * @return how much further lifeline to is from lifeline from
+         */
+        int sum(int from, int to) {
+            return prefixSum(to) - prefixSum(from);
+        }
+
+        private int prefixSum(int count) {
+            int sum = 0;
+            for (int i = count; i > 0; i -= i & -i) {
+                sum += _tree[i];
+            }
+            return sum;
+        }
+    }
 }
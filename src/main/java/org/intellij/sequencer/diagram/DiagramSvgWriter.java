@@ -0,0 +1,195 @@
+package org.intellij.sequencer.diagram;
+
+import org.intellij.sequencer.config.Configuration;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a laid out diagram as SVG, element by element as they are painted, without rasterizing.
+ * Lines are drawn through the pixel centers so they cover the same pixels as on screen.
+ */
+class DiagramSvgWriter {
+    private final Writer _writer;
+    private final Configuration _configuration;
+    private final Font _font;
+
+    DiagramSvgWriter(Writer writer) {
+        _writer = writer;
+        _configuration = Configuration.getInstance();
+        _font = RenderResources.getInstance().getFont();
+    }
+
+    /**
+     * Write the headers of the lifelines at the top and the diagram below them, as in an exported image.
+     */
+    void write(Diagram diagram, Dimension size, Color background) throws IOException {
+        _writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        _writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + size.width + "\" height=\"" + size.height
+                + "\" viewBox=\"0 0 " + size.width + " " + size.height + "\" font-family=\"" + escape(fontFamily(_font))
+                + "\" font-size=\"" + _font.getSize() + "\">\n");
+        if (background != null)
+            fillRect(0, 0, size.width, size.height, background);
+
+        for (DisplayObject displayObject : diagram.getObjectLifeLines()) {
+            writeHeader(displayObject);
+        }
+        _writer.write("<g transform=\"translate(0," + diagram.getPreferredHeaderSize().height + ")\">\n");
+        for (DisplayObject displayObject : diagram.getObjectLifeLines()) {
+            writeLifeLine(displayObject);
+        }
+        _writer.write("</g>\n</svg>\n");
+        _writer.flush();
+    }
+
+    private void writeHeader(DisplayObject displayObject) throws IOException {
+        TextBox textBox = displayObject.getTextBox();
+        int x = displayObject.getX();
+        int y = displayObject.getY();
+        if (_configuration.USE_3D_VIEW)
+            fillRect(x + 2, y + 2, textBox.getWidth(), textBox.getHeight(), DisplayObject.SHADOW_COLOR);
+        fillRect(x, y, textBox.getWidth(), textBox.getHeight(),
+                displayObject.determineBackgroundPaintForObject(_configuration));
+        drawRect(x, y, textBox.getWidth() - 1, textBox.getHeight() - 1, DisplayObject.BORDER_COLOR);
+
+        ObjectInfo objectInfo = displayObject.getObjectInfo();
+        Color mappedColor = RenderResources.getInstance().getMappedColor(objectInfo.getFullName());
+        if (mappedColor != null) {
+            int overlayBoxSize = textBox.getHeight() / 3;
+            fillRect(x - 2, y - 2, overlayBoxSize, overlayBoxSize, mappedColor);
+        }
+        drawString(objectInfo.getName(), x + textBox.getPad(), y + textBox.getTextOffset(), DisplayObject.TEXT_COLOR,
+                objectInfo.hasAttribute(Info.ABSTRACT_ATTRIBUTE), false);
+    }
+
+    private void writeLifeLine(DisplayObject displayObject) throws IOException {
+        drawLine(displayObject.getCenterX(), 0, displayObject.getCenterX(), displayObject.getFullHeight(),
+                DisplayObject.LINE_COLOR, DisplayObject.DASH_STROKE);
+        for (DisplayMethod methodBox : displayObject.getMethods()) {
+            if (_configuration.USE_3D_VIEW)
+                fillRect(methodBox.getX() + 2, methodBox.getY() + 2, methodBox.getWidth(), methodBox.getHeight(),
+                        DisplayMethod.SHADOW_COLOR);
+            fillRect(methodBox.getX(), methodBox.getY(), methodBox.getWidth(), methodBox.getHeight(),
+                    _configuration.METHOD_BAR_COLOR);
+            drawRect(methodBox.getX(), methodBox.getY(), methodBox.getWidth() - 1, methodBox.getHeight() - 1,
+                    DisplayMethod.LINE_COLOR);
+        }
+        for (DisplayLink displayLink : displayObject.getCalls()) {
+            writeLink(displayLink);
+        }
+        for (DisplayLink displayLink : displayObject.getReturns()) {
+            if (DisplayObject.isReturnShown(displayLink))
+                writeLink(displayLink);
+        }
+    }
+
+    private void writeLink(DisplayLink link) throws IOException {
+        if (link.isTextShown()) {
+            Info methodInfo = link.getMethodInfo();
+            drawString(link.getLink().getName(), link.getTextX(), link.getTextY(), DisplayLink.TEXT_COLOR,
+                    methodInfo.hasAttribute(Info.ABSTRACT_ATTRIBUTE), methodInfo.hasAttribute(Info.STATIC_ATTRIBUTE));
+        }
+
+        int[] points = link.getLinePoints();
+        for (int i = 0; i + 3 < points.length; i += 2) {
+            drawLine(points[i], points[i + 1], points[i + 2], points[i + 3], DisplayLink.LINK_COLOR, link.getLineStroke());
+        }
+
+        int tipX = link.getArrowTipX();
+        int tipY = link.getArrowTipY();
+        int tailX = link.getArrowTailX();
+        if (link.isReturnLink()) {
+            drawLine(tailX, tipY - DisplayLink.ARROW_HALF_WIDTH, tipX, tipY, DisplayLink.LINK_COLOR, null);
+            drawLine(tailX, tipY + DisplayLink.ARROW_HALF_WIDTH, tipX, tipY, DisplayLink.LINK_COLOR, null);
+        } else {
+            _writer.write("<polygon points=\"" + tailX + "," + (tipY - DisplayLink.ARROW_HALF_WIDTH) + " " + tipX + "," + tipY
+                    + " " + tailX + "," + (tipY + DisplayLink.ARROW_HALF_WIDTH) + "\"" + fill(DisplayLink.LINK_COLOR) + "/>\n");
+        }
+    }
+
+    /**
+     * @return the CSS font family of the font, the Java logical fonts are not known outside of Java
+     * so they map to the generic families, other fonts fall back to sans-serif
+     */
+    private static String fontFamily(Font font) {
+        switch (font.getFamily()) {
+            case Font.DIALOG:
+            case Font.SANS_SERIF:
+                return "sans-serif";
+            case Font.SERIF:
+                return "serif";
+            case Font.MONOSPACED:
+            case Font.DIALOG_INPUT:
+                return "monospace";
+            default:
+                return "'" + font.getFamily().replace("'", "") + "', sans-serif";
+        }
+    }
+
+    private void fillRect(int x, int y, int width, int height, Paint paint) throws IOException {
+        _writer.write("<rect x=\"" + x + "\" y=\"" + y + "\" width=\"" + width + "\" height=\"" + height + "\""
+                + fill(paint) + "/>\n");
+    }
+
+    private void drawRect(int x, int y, int width, int height, Paint paint) throws IOException {
+        _writer.write("<rect x=\"" + (x + 0.5) + "\" y=\"" + (y + 0.5) + "\" width=\"" + width + "\" height=\"" + height
+                + "\" fill=\"none\"" + stroke(paint, null) + "/>\n");
+    }
+
+    private void drawLine(int x1, int y1, int x2, int y2, Paint paint, Stroke stroke) throws IOException {
+        _writer.write("<line x1=\"" + (x1 + 0.5) + "\" y1=\"" + (y1 + 0.5) + "\" x2=\"" + (x2 + 0.5) + "\" y2=\""
+                + (y2 + 0.5) + "\"" + stroke(paint, stroke) + "/>\n");
+    }
+
+    private void drawString(String text, int x, int y, Paint paint, boolean italic, boolean underline) throws IOException {
+        _writer.write("<text x=\"" + x + "\" y=\"" + y + "\"" + fill(paint)
+                + (italic ? " font-style=\"italic\"" : "")
+                + (underline ? " text-decoration=\"underline\"" : "")
+                + " xml:space=\"preserve\">" + escape(text) + "</text>\n");
+    }
+
+    private static String fill(Paint paint) {
+        Color color = (Color) paint;
+        return " fill=\"" + rgb(color) + "\"" + (color.getAlpha() < 255 ? " fill-opacity=\"" + opacity(color) + "\"" : "");
+    }
+
+    private static String stroke(Paint paint, Stroke stroke) {
+        Color color = (Color) paint;
+        StringBuilder attributes = new StringBuilder(" stroke=\"").append(rgb(color)).append('"');
+        if (color.getAlpha() < 255)
+            attributes.append(" stroke-opacity=\"").append(opacity(color)).append('"');
+        if (stroke instanceof BasicStroke && ((BasicStroke) stroke).getDashArray() != null) {
+            attributes.append(" stroke-dasharray=\"");
+            float[] dashArray = ((BasicStroke) stroke).getDashArray();
+            for (int i = 0; i < dashArray.length; i++) {
+                attributes.append(i == 0 ? "" : ",").append(dashArray[i]);
+            }
+            attributes.append('"');
+        }
+        return attributes.toString();
+    }
+
+    private static String rgb(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xFFFFFF);
+    }
+
+    private static String opacity(Color color) {
+        return String.valueOf(color.getAlpha() / 255f);
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package org.intellij.sequencer.diagram;
+
+import com.intellij.util.ui.ImageUtil;
+import com.intellij.util.ui.UIUtil;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Cache of the laid out diagram painted into fixed size tiles. The tiles in the clip are painted on first use
+ * and drawn from then on, the least recently used ones are dropped. The cache holds the tiles of the largest
+ * clip painted and a ring around it, so a repaint never drops the tiles it needs.
+ */
+class DiagramTiles {
+    private static final int TILE_SIZE = 256;
+    // 16MB of tiles at scale 1, about four screens
+    private static final int MIN_TILES = 64;
+    // larger clips are painted without tiles, when zoomed out far
+    private static final int MAX_TILES = 1024;
+
+    private final Map<Long, BufferedImage> _tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > _capacity;
+        }
+    };
+    private int _capacity = MIN_TILES;
+    private double _scale = 1;
+
+    /**
+     * Drop all the tiles, after the diagram, its layout or the configuration changed.
+     */
+    void clear() {
+        _tiles.clear();
+    }
+
+    /**
+     * Drop the tiles of the area, after an object in it changed, e.g. by selection.
+     */
+    void invalidate(Rectangle area) {
+        for (Iterator<Long> iterator = _tiles.keySet().iterator(); iterator.hasNext(); ) {
+            long key = iterator.next();
+            Rectangle tile = new Rectangle((int) key * TILE_SIZE, (int) (key >> 32) * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            if (tile.intersects(area))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Draw the tiles in the clip of the graphics, the missing ones are painted by the painter.
+     * The painter is given a graphics clipped and translated to the tile.
+     */
+    void paint(Graphics2D g2, Consumer<Graphics2D> painter) {
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) {
+            painter.accept(g2);
+            return;
+        }
+        double scale = g2.getTransform().getScaleX();
+        if (scale != _scale) {
+            _scale = scale;
+            _capacity = MIN_TILES;
+            clear();
+        }
+
+        int firstColumn = Math.max(clip.x, 0) / TILE_SIZE;
+        int lastColumn = Math.max(clip.x + clip.width - 1, 0) / TILE_SIZE;
+        int firstRow = Math.max(clip.y, 0) / TILE_SIZE;
+        int lastRow = Math.max(clip.y + clip.height - 1, 0) / TILE_SIZE;
+        int capacity = (lastColumn - firstColumn + 3) * (lastRow - firstRow + 3);
+        if (capacity > MAX_TILES) {
+            painter.accept(g2);
+            return;
+        }
+        _capacity = Math.max(_capacity, capacity);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = ((long) row << 32) | column;
+                BufferedImage tile = _tiles.get(key);
+                if (tile == null) {
+                    tile = createTile(g2, column * TILE_SIZE, row * TILE_SIZE, painter);
+                    _tiles.put(key, tile);
+                }
+                UIUtil.drawImage(g2, tile, column * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    private static BufferedImage createTile(Graphics2D g2, int x, int y, Consumer<Graphics2D> painter) {
+        // created at the scale of the graphics, painted transparent over the background
+        BufferedImage tile = ImageUtil.createImage(g2, TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D tileGraphics = tile.createGraphics();
+        try {
+            tileGraphics.translate(-x, -y);
+            tileGraphics.clipRect(x, y, TILE_SIZE, TILE_SIZE);
+            painter.accept(tileGraphics);
+        } finally {
+            tileGraphics.dispose();
+        }
+        return tile;
+    }
+}
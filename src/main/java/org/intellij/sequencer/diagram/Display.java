@@ -1,33 +1,52 @@
 package org.intellij.sequencer.diagram;
 
 import com.intellij.ui.JBColor;
-import com.intellij.util.ui.ImageUtil;
+import org.apache.log4j.Logger;
 import org.intellij.sequencer.config.ConfigListener;
 import org.intellij.sequencer.config.Configuration;
+import org.intellij.sequencer.generator.CallStack;
+import org.intellij.sequencer.util.StreamingPngWriter;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
 
 public class Display extends JComponent implements ModelTextListener, Scrollable, ConfigListener {
+    private static final Logger LOGGER = Logger.getLogger(Display.class);
+
+    // 16MB of ARGB pixels per strip of an exported image
+    private static final int MAX_STRIP_PIXELS = 4 * 1024 * 1024;
+
     private int _inset = 5;
 
     private final Model _model;
     private SequenceListener _listener;
 
-    private boolean _initialized = false;
     private final DisplayHeader _displayHeader;
-    private final Diagram _diagram;
+    // built and laid out off the EDT, never changed once painted
+    private volatile Diagram _diagram = new Diagram();
+    private final DiagramTiles _tiles = new DiagramTiles();
+    private CallStack _callStack;
+    private String _query;
+    // counts the snapshots requested, only the latest one is shown
+    private int _generation;
 
     public Display(Model model, SequenceListener listener) {
         _model = model;
-        _diagram = new Diagram();
         _listener = listener;
         if (_listener == null)
             _listener = new NullListener();
@@ -46,7 +65,10 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
 
         setToolTipText(" ");
 
-        setQuery(model.getText());
+        if (model.getCallStack() != null)
+            setCallStack(model.getCallStack());
+        else
+            setQuery(model.getText());
     }
 
     public void dispose() {
@@ -54,17 +76,80 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
     }
 
     public void modelTextChanged(ModelTextEvent event) {
-        setQuery(event.getText());
+        if (event.getCallStack() != null)
+            setCallStack(event.getCallStack());
+        else
+            setQuery(event.getText());
     }
 
     private void setQuery(String query) {
-        _diagram.build(query);
-        _initialized = false;
+        _query = query;
+        _callStack = null;
+        buildSnapshot();
+    }
+
+    private void setCallStack(CallStack callStack) {
+        _query = null;
+        _callStack = callStack;
+        buildSnapshot();
+    }
+
+    /**
+     * Build and lay out a new diagram in the background, it replaces the painted one once done
+     * unless another one was requested in the meantime.
+     */
+    private void buildSnapshot() {
+        int generation = ++_generation;
+        CallStack callStack = _callStack;
+        String query = _query;
+        // the glyph advances round differently at the scale of a HiDPI screen, the text is measured at it
+        GraphicsConfiguration graphicsConfiguration = getGraphicsConfiguration();
+        AffineTransform deviceTransform = graphicsConfiguration != null ? graphicsConfiguration.getDefaultTransform() : null;
+        new SwingWorker<Snapshot, Void>() {
+            @Override
+            protected Snapshot doInBackground() {
+                return createSnapshot(callStack, query, deviceTransform);
+            }
+
+            @Override
+            protected void done() {
+                if (generation != _generation)
+                    return;
+                try {
+                    setSnapshot(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    LOGGER.error("Failed to build the diagram", e);
+                }
+            }
+        }.execute();
+    }
+
+    private Snapshot createSnapshot(CallStack callStack, String query, AffineTransform deviceTransform) {
+        Diagram diagram = new Diagram();
+        if (callStack != null)
+            diagram.build(callStack);
+        else
+            diagram.build(query);
+
+        // measured with the font and hints setupGraphics() paints with, on the screen of the component
+        Configuration configuration = Configuration.getInstance();
+        FontRenderContext frc = new FontRenderContext(deviceTransform, configuration.USE_ANTIALIASING, false);
+        return new Snapshot(diagram, diagram.layoutObjects(RenderResources.getInstance().getFont(), frc, _inset));
+    }
+
+    private void setSnapshot(Snapshot snapshot) {
+        _diagram = snapshot.diagram;
+        _tiles.clear();
+        setPreferredSize(snapshot.size);
         revalidate();
-        repaint();
+        repaintAll();
     }
 
-    public synchronized void paintComponent(Graphics g) {
+    public void paintComponent(Graphics g) {
+        paintDiagram(g, true);
+    }
+
+    private void paintDiagram(Graphics g, boolean useTiles) {
         super.paintComponent(g);
 
         Graphics2D g2 = (Graphics2D) g;
@@ -73,20 +158,22 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         Insets insets = getInsets();
         g2.translate(insets.left, insets.top);
 
-        if (!_initialized)
-            layout(g2);
-
-        _diagram.paint(g2);
+        Diagram diagram = _diagram;
+        if (useTiles) {
+            _tiles.paint(g2, tileGraphics -> {
+                setupGraphics(tileGraphics);
+                diagram.paint(tileGraphics);
+            });
+        } else {
+            diagram.paint(g2);
+        }
     }
 
     private void setupGraphics(Graphics2D g2) {
         Configuration configuration = Configuration.getInstance();
-        g2.setFont(new Font(configuration.FONT_NAME, Font.PLAIN, configuration.FONT_SIZE));
-        if (configuration.USE_ANTIALIASING) {
-            HashMap<Object, Object> hintsMap = new HashMap<>();
-            hintsMap.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.addRenderingHints(hintsMap);
-        }
+        g2.setFont(RenderResources.getInstance().getFont());
+        if (configuration.USE_ANTIALIASING)
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
     }
 
     public String getToolTipText(MouseEvent event) {
@@ -96,13 +183,6 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         return screenObject.getToolTip();
     }
 
-    private void layout(Graphics2D g2) {
-        _initialized = true;
-        Dimension dimension = _diagram.layoutObjects(g2, _inset);
-        setPreferredSize(dimension);
-        revalidate();
-    }
-
     public void revalidate() {
         super.revalidate();
         if (_displayHeader != null)
@@ -162,8 +242,16 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
     }
 
     public void configChanged() {
-        _initialized = false;
+        _tiles.clear();
         repaintAll();
+        buildSnapshot();
+    }
+
+    public void updateUI() {
+        super.updateUI();
+        // the colors of the look and feel are painted in the tiles
+        if (_tiles != null)
+            _tiles.clear();
     }
 
     private void repaintAll() {
@@ -184,25 +272,42 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         return new Dimension(width, height);
     }
 
+    /**
+     * Save the diagram as png. It is painted in strips streamed to the file one after the other,
+     * only one strip is held in memory whatever the size of the diagram.
+     */
     public void saveImageToFile(File file) throws IOException {
         Dimension size = getFullSize();
-        BufferedImage image = ImageUtil.createImage(size.width, size.height, BufferedImage.TYPE_INT_ARGB);
-        LookAndFeel lookAndFeel = UIManager.getLookAndFeel();
-        try {
-            String systemLookAndFeelClassName = UIManager.getSystemLookAndFeelClassName();
-            UIManager.setLookAndFeel(systemLookAndFeelClassName);
-        } catch (Exception e) {
-            //ignore
+        int width = Math.max(size.width, 1);
+        int height = Math.max(size.height, 1);
+        int stripHeight = Math.max(1, Math.min(height, MAX_STRIP_PIXELS / width));
+        BufferedImage strip = new BufferedImage(width, stripHeight, BufferedImage.TYPE_INT_ARGB);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+             StreamingPngWriter writer = new StreamingPngWriter(out, width, height)) {
+            for (int y = 0; y < height; y += stripHeight) {
+                int rows = Math.min(stripHeight, height - y);
+                Graphics2D graphics = strip.createGraphics();
+                try {
+                    graphics.clipRect(0, 0, width, rows);
+                    graphics.translate(0, -y);
+                    // painted in the colors of the current theme, as on screen
+                    graphics.setColor(getBackground());
+                    paintComponentWithHeader(graphics);
+                } finally {
+                    graphics.dispose();
+                }
+                writer.writeRows(strip, rows);
+            }
         }
-        Graphics2D graphics = image.createGraphics();
-        paintComponentWithHeader(graphics);
+    }
 
-        try {
-            UIManager.setLookAndFeel(lookAndFeel);
-        } catch (UnsupportedLookAndFeelException e) {
-            //ignore
+    /**
+     * Save the diagram as svg, written from the laid out diagram without painting it.
+     */
+    public void saveSvgToFile(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            _diagram.writeSvg(writer, getBackground());
         }
-        ImageIO.write(image, "png", file);
     }
 
     public void paintComponentWithHeader(Graphics2D graphics) {
@@ -210,7 +315,7 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         graphics.fillRect(0, 0, size.width, size.height);
         _displayHeader.paintComponent(graphics);
         graphics.translate(0, _displayHeader.getHeight());
-        paintComponent(graphics);
+        paintDiagram(graphics, false);
     }
 
     private class DisplayHeader extends JComponent {
@@ -240,6 +345,7 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         public void mouseReleased(MouseEvent e) {
             if (selectedScreenObject != null) {
                 selectedScreenObject.setSelected(false);
+                invalidateTiles(selectedScreenObject);
                 selectedScreenObject = null;
                 repaint();
             }
@@ -272,14 +378,35 @@ public class Display extends JComponent implements ModelTextListener, Scrollable
         private void setSelected(ScreenObject screenObject) {
             selectedScreenObject = screenObject;
             selectedScreenObject.setSelected(true);
+            invalidateTiles(selectedScreenObject);
             repaint();
         }
 
+        /**
+         * Only the tiles under a selected or deselected object are painted again.
+         */
+        private void invalidateTiles(ScreenObject screenObject) {
+            Insets insets = getInsets();
+            Rectangle bounds = screenObject.getPaintBounds();
+            bounds.translate(-insets.left, -insets.top);
+            _tiles.invalidate(bounds);
+        }
+
         private void repaint() {
             repaintAll();
         }
     }
 
+    private static class Snapshot {
+        private final Diagram diagram;
+        private final Dimension size;
+
+        private Snapshot(Diagram diagram, Dimension size) {
+            this.diagram = diagram;
+            this.size = size;
+        }
+    }
+
     private static class NullListener implements SequenceListener {
         public void selectedScreenObject(ScreenObject screenObject) {
         }
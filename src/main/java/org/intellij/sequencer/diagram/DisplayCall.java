@@ -17,15 +17,10 @@ public class DisplayCall extends DisplayLink {
     }
 
     @Override
-    void drawLine(Graphics2D g2) {
-        if (_from.getObjectInfo().hasAttribute(Info.INTERFACE_ATTRIBUTE) || _from.getObjectInfo().hasAttribute(Info.ABSTRACT_ATTRIBUTE)) {
-            Stroke oldStroke = g2.getStroke();
-            g2.setStroke(DASH_STROKE);
-            super.drawLine(g2);
-            g2.setStroke(oldStroke);
-        } else {
-            super.drawLine(g2);
-        }
+    Stroke getLineStroke() {
+        if (_from.getObjectInfo().hasAttribute(Info.INTERFACE_ATTRIBUTE) || _from.getObjectInfo().hasAttribute(Info.ABSTRACT_ATTRIBUTE))
+            return DASH_STROKE;
+        return null;
     }
 
 
@@ -3,11 +3,18 @@ package org.intellij.sequencer.diagram;
 import com.intellij.ui.JBColor;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.GeneralPath;
 
 public class DisplayLink extends ScreenObject {
-    private static final Paint TEXT_COLOR = JBColor.foreground();
-    private static final Paint LINK_COLOR = JBColor.foreground();
+    static final Paint TEXT_COLOR = JBColor.foreground();
+    static final Paint LINK_COLOR = JBColor.foreground();
+    private static final Stroke SELECTED_STROKE = new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    static final int ARROW_LENGTH = 4;
+    static final int ARROW_HALF_WIDTH = 3;
+    // arrow heads with the tip at the origin, pointing to the right and to the left
+    private static final Shape RIGHT_ARROW_HEAD = createArrowHead(-ARROW_LENGTH);
+    private static final Shape LEFT_ARROW_HEAD = createArrowHead(ARROW_LENGTH);
     private static final Stroke DASH_STROKE = new BasicStroke(1.0f,
           BasicStroke.CAP_SQUARE,
           BasicStroke.JOIN_MITER,
@@ -35,8 +42,8 @@ public class DisplayLink extends ScreenObject {
         _textBox = new TextBox(link.getName());
     }
 
-    void initOne(Graphics2D g2) {
-        _textBox.init(g2);
+    void initOne(Font font, FontRenderContext frc) {
+        _textBox.init(font, frc);
     }
 
     void initTwo() {
@@ -112,14 +119,60 @@ public class DisplayLink extends ScreenObject {
         return _from.getSeq() == _to.getSeq();
     }
 
+    /**
+     * @return true if the name of the method is drawn above the line, not for returns
+     */
+    boolean isTextShown() {
+        return true;
+    }
+
+    int getTextX() {
+        return getX() + _textXOffset + _textBox.getPad();
+    }
+
+    int getTextY() {
+        return getY() + _textBox.getTextOffset();
+    }
+
+    /**
+     * @return the points of the line from the caller to the arrow head, as x and y pairs
+     */
+    int[] getLinePoints() {
+        return new int[]{_lineStartX, getEndY(), _lineEndX, getEndY()};
+    }
+
+    /**
+     * @return the stroke the line is drawn with, or null for a solid line
+     */
+    Stroke getLineStroke() {
+        return null;
+    }
+
+    int getArrowTipX() {
+        return _lineEndX;
+    }
+
+    int getArrowTipY() {
+        return getEndY();
+    }
+
+    boolean isArrowPointingRight() {
+        return _lineStartX < _lineEndX;
+    }
+
+    int getArrowTailX() {
+        return isArrowPointingRight() ? getArrowTipX() - ARROW_LENGTH : getArrowTipX() + ARROW_LENGTH;
+    }
+
     public void paint(Graphics2D g2) {
         Rectangle clipBounds = g2.getClipBounds();
         if(clipBounds != null && !clipBounds.intersects(getX(), getY(), getWidth(), getHeight()))
             return;
         Stroke oldStroke = g2.getStroke();
         if(isSelected())
-            g2.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        drawText(g2);
+            g2.setStroke(SELECTED_STROKE);
+        if(isTextShown())
+            drawText(g2);
         drawLine(g2);
         if (isReturnLink()) {
             drawArrow(g2);
@@ -131,8 +184,8 @@ public class DisplayLink extends ScreenObject {
  
     void drawText(Graphics2D g2) {
         g2.setPaint(TEXT_COLOR);
-        int textX = getX() + _textXOffset + _textBox.getPad();
-        int textY = getY() + _textBox.getTextOffset();
+        int textX = getTextX();
+        int textY = getTextY();
         if(isSelected()) {
             Stroke oldStroke = g2.getStroke();
             g2.setStroke(DASH_STROKE);
@@ -142,7 +195,7 @@ public class DisplayLink extends ScreenObject {
         }
         Font oldFont = g2.getFont();
         if(_link.getMethodInfo().hasAttribute(Info.ABSTRACT_ATTRIBUTE))
-            g2.setFont(new Font(oldFont.getFontName(), Font.ITALIC, oldFont.getSize()));
+            g2.setFont(RenderResources.getInstance().getItalicFont(oldFont));
         g2.drawString(_link.getName(), textX, textY);
         if(_link.getMethodInfo().hasAttribute(Info.STATIC_ATTRIBUTE)) {
             int y = textY + g2.getFontMetrics().getDescent() - 1;
@@ -153,7 +206,15 @@ public class DisplayLink extends ScreenObject {
 
     void drawLine(Graphics2D g2) {
         g2.setPaint(LINK_COLOR);
-        g2.drawLine(_lineStartX, getEndY(), _lineEndX, getEndY());
+        Stroke oldStroke = g2.getStroke();
+        Stroke lineStroke = getLineStroke();
+        if(lineStroke != null)
+            g2.setStroke(lineStroke);
+        int[] points = getLinePoints();
+        for(int i = 0; i + 3 < points.length; i += 2) {
+            g2.drawLine(points[i], points[i + 1], points[i + 2], points[i + 3]);
+        }
+        g2.setStroke(oldStroke);
     }
 
     protected int getEndY() {
@@ -164,38 +225,28 @@ public class DisplayLink extends ScreenObject {
     }
 
     void drawArrow(Graphics2D g2) {
-        int arrowTailX = _lineEndX;
-
-        if(_lineStartX < _lineEndX)
-            arrowTailX -= 4;
-        else
-            arrowTailX += 4;
-
-        g2.drawLine(arrowTailX, getEndY() - 3, _lineEndX, getEndY());
-        g2.drawLine(arrowTailX, getEndY() + 3, _lineEndX, getEndY());
+        int tipX = getArrowTipX();
+        int tipY = getArrowTipY();
+        int tailX = getArrowTailX();
+        g2.drawLine(tailX, tipY - ARROW_HALF_WIDTH, tipX, tipY);
+        g2.drawLine(tailX, tipY + ARROW_HALF_WIDTH, tipX, tipY);
     }
 
     void fillArrow(Graphics2D g2) {
-        int arrowTailX = _lineEndX;
-
-        if(_lineStartX < _lineEndX)
-            arrowTailX -= 4;
-        else
-            arrowTailX += 4;
-
-        int[] xPoints = {arrowTailX, _lineEndX, arrowTailX};
-        int[] yPoints = {getEndY() - 3, getEndY(), getEndY() + 3};
-        fillPolygon(g2, xPoints, yPoints);
+        int tipX = getArrowTipX();
+        int tipY = getArrowTipY();
+        g2.translate(tipX, tipY);
+        g2.fill(isArrowPointingRight() ? RIGHT_ARROW_HEAD : LEFT_ARROW_HEAD);
+        g2.translate(-tipX, -tipY);
     }
 
-    protected void fillPolygon(Graphics2D g2, int[] xPoints, int[] yPoints) {
-        GeneralPath filledPolygon = new GeneralPath();
-        filledPolygon.moveTo(xPoints[0], yPoints[0]);
-        for (int idx = 1; idx < xPoints.length; idx ++ ) {
-            filledPolygon.lineTo(xPoints[idx], yPoints[idx]);
-        }
-        filledPolygon.closePath();
-        g2.fill(filledPolygon);
+    private static Shape createArrowHead(int tailX) {
+        GeneralPath arrowHead = new GeneralPath();
+        arrowHead.moveTo(tailX, -ARROW_HALF_WIDTH);
+        arrowHead.lineTo(0, 0);
+        arrowHead.lineTo(tailX, ARROW_HALF_WIDTH);
+        arrowHead.closePath();
+        return arrowHead;
     }
 
     public boolean isReturnLink() {
@@ -10,8 +10,8 @@ public class DisplayMethod extends ScreenObject {
 
     private static final Logger LOGGER = Logger.getLogger(DisplayMethod.class);
 
-    private static final Paint LINE_COLOR = JBColor.foreground();
-    private static final Paint SHADOW_COLOR = JBColor.LIGHT_GRAY;
+    static final Paint LINE_COLOR = JBColor.foreground();
+    static final Paint SHADOW_COLOR = JBColor.LIGHT_GRAY;
 
     private ObjectInfo _objectInfo;
     private MethodInfo _methodInfo;
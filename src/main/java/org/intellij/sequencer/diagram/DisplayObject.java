@@ -3,10 +3,10 @@ package org.intellij.sequencer.diagram;
 import com.intellij.ui.JBColor;
 import org.apache.log4j.Logger;
 import org.intellij.sequencer.config.ColorMapEntry;
-import org.intellij.sequencer.config.ColorSupport;
 import org.intellij.sequencer.config.Configuration;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -14,11 +14,12 @@ import java.util.Optional;
 public class DisplayObject extends ScreenObject {
     private static final Logger LOGGER = Logger.getLogger(DisplayObject.class);
 
-    private static final Paint BORDER_COLOR = JBColor.foreground();
-    private static final Paint TEXT_COLOR = Color.DARK_GRAY;
-    private static final Paint LINE_COLOR =  JBColor.foreground();
-    private static final Paint SHADOW_COLOR = JBColor.LIGHT_GRAY;
-    private static final Stroke DASH_STROKE = new BasicStroke(1.0f,
+    static final Paint BORDER_COLOR = JBColor.foreground();
+    static final Paint TEXT_COLOR = Color.DARK_GRAY;
+    static final Paint LINE_COLOR =  JBColor.foreground();
+    static final Paint SHADOW_COLOR = JBColor.LIGHT_GRAY;
+    private static final Stroke SELECTED_STROKE = new BasicStroke(2);
+    static final Stroke DASH_STROKE = new BasicStroke(1.0f,
             BasicStroke.CAP_SQUARE,
             BasicStroke.JOIN_MITER,
             12.0f,
@@ -35,20 +36,20 @@ public class DisplayObject extends ScreenObject {
 
     private final List<DisplayLink> _calls = new ArrayList<>();
     private final List<DisplayLink> _returns = new ArrayList<>();
-    private final List<DisplayMethod> _methods = new ArrayList<>();
+    private final MethodIntervals _methods = new MethodIntervals();
 
     DisplayObject(ObjectInfo objectInfo) {
         _objectInfo = objectInfo;
         _textBox = new TextBox(objectInfo.getName());
     }
 
-    void initializeGraphics(Graphics2D g2) {
-        _textBox.init(g2);
+    void initializeGraphics(Font font, FontRenderContext frc) {
+        _textBox.init(font, frc);
         for (DisplayLink call : _calls) {
-            call.initOne(g2);
+            call.initOne(font, frc);
         }
         for (DisplayLink aReturn : _returns) {
-            aReturn.initOne(g2);
+            aReturn.initOne(font, frc);
         }
     }
 
@@ -70,6 +71,18 @@ public class DisplayObject extends ScreenObject {
         return _calls;
     }
 
+    List<DisplayLink> getReturns() {
+        return _returns;
+    }
+
+    List<DisplayMethod> getMethods() {
+        return _methods.getMethods();
+    }
+
+    TextBox getTextBox() {
+        return _textBox;
+    }
+
     void addCallReturn(DisplayCallReturn cr) {
         _returns.add(cr);
     }
@@ -81,18 +94,7 @@ public class DisplayObject extends ScreenObject {
     void addMethod(DisplayMethod displayMethod) {
         if(LOGGER.isDebugEnabled())
             LOGGER.debug("DisplayObject addMethod(" + displayMethod + ")");
-        if(_methods.isEmpty()) {
-            displayMethod.setHorizontalSeq(0);
-        } else {
-            int enclosingCount = 0;
-            for (DisplayMethod otherMb : _methods) {
-                if ((otherMb.getStartSeq() < displayMethod.getStartSeq()) &&
-                        (otherMb.getEndSeq() > displayMethod.getEndSeq()))
-                    ++enclosingCount;
-            }
-            displayMethod.setHorizontalSeq(enclosingCount);
-        }
-        _methods.add(displayMethod);
+        displayMethod.setHorizontalSeq(_methods.add(displayMethod));
     }
 
     public ObjectInfo getObjectInfo() {
@@ -182,25 +184,32 @@ public class DisplayObject extends ScreenObject {
     public int getMethodDepth(int seq) {
         if(LOGGER.isDebugEnabled())
             LOGGER.debug("getMethodDepth(" + seq + ")");
-        int depth = 0;
-        for (DisplayMethod displayMethod : _methods) {
-            if ((displayMethod.getStartSeq() <= seq) && (displayMethod.getEndSeq() >= seq))
-                ++depth;
-        }
-        return depth;
+        return _methods.depth(seq);
+    }
+
+    /**
+     * @return the area of the activation bars, or null if there are none
+     */
+    Rectangle getMethodsBounds() {
+        if(_methods.isEmpty())
+            return null;
+        // see DisplayMethod.getX() and getWidth()
+        return new Rectangle(getCenterX() - 4, 0, 3 * _methods.getMaxEnclosingCount() + 9, _fullHeight);
     }
 
     public DisplayMethod findMethod(int x, int y) {
-        DisplayMethod selectedMethodBox = null;
-        for (DisplayMethod methodBox : _methods) {
-            if (methodBox.isInRange(x, y))
-                if ((selectedMethodBox == null || selectedMethodBox.getX() < methodBox.getX()))
-                    selectedMethodBox = methodBox;
-        }
-        return selectedMethodBox;
+        return _methods.find(x, y);
     }
 
     public void paint(Graphics2D g2) {
+        paint(g2, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Paint the links and activation bars of the sequence range only, as they are ordered by sequence
+     * the range is found by binary search.
+     */
+    void paint(Graphics2D g2, int fromSeq, int toSeq) {
         if(isInClipArea(g2, _fullHeight)) {
             g2.setPaint(LINE_COLOR);
             Stroke oldStroke = g2.getStroke();
@@ -208,26 +217,46 @@ public class DisplayObject extends ScreenObject {
             g2.drawLine(getCenterX(), 0, getCenterX(), _fullHeight);
             g2.setStroke(oldStroke);
 
-            for (DisplayMethod methodBox : _methods) {
+            for (DisplayMethod methodBox : _methods.findOverlapping(fromSeq, toSeq)) {
                 methodBox.paint(g2);
             }
         }
 
-        for (DisplayLink displayLink : _calls) {
+        for (DisplayLink displayLink : inRange(_calls, fromSeq, toSeq)) {
 //            if (displayLink.getLink().isBootstrap())
 //                continue;
             displayLink.paint(g2);
         }
-        for (DisplayLink displayLink : _returns) {
-            // todo make it configurable
-            if (displayLink instanceof DisplaySelfCallReturn /*|| displayLink.getLink().isBootstrap()*/)
-                continue;
-            if (!Configuration.getInstance().SHOW_RETURN_ARROWS && displayLink instanceof DisplayCallReturn)
-                continue;
-            if (displayLink.getTo().getObjectInfo().getName().equals(ObjectInfo.ACTOR_NAME))
-                continue;
-            displayLink.paint(g2);
+        for (DisplayLink displayLink : inRange(_returns, fromSeq, toSeq)) {
+            if (isReturnShown(displayLink))
+                displayLink.paint(g2);
+        }
+    }
+
+    static boolean isReturnShown(DisplayLink displayLink) {
+        // todo make it configurable
+        if (displayLink instanceof DisplaySelfCallReturn /*|| displayLink.getLink().isBootstrap()*/)
+            return false;
+        if (!Configuration.getInstance().SHOW_RETURN_ARROWS && displayLink instanceof DisplayCallReturn)
+            return false;
+        return !displayLink.getTo().getObjectInfo().getName().equals(ObjectInfo.ACTOR_NAME);
+    }
+
+    private static List<DisplayLink> inRange(List<DisplayLink> links, int fromSeq, int toSeq) {
+        return links.subList(firstNotBefore(links, fromSeq), firstNotBefore(links, toSeq == Integer.MAX_VALUE ? toSeq : toSeq + 1));
+    }
+
+    private static int firstNotBefore(List<DisplayLink> links, int seq) {
+        int low = 0;
+        int high = links.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(links.get(middle).getSeq() < seq)
+                low = middle + 1;
+            else
+                high = middle;
         }
+        return low;
     }
 
     private boolean isInClipArea(Graphics2D g2, int height) {
@@ -251,23 +280,24 @@ public class DisplayObject extends ScreenObject {
         g2.setPaint(BORDER_COLOR);
         Stroke oldStroke = g2.getStroke();
         if(isSelected()) {
-            g2.setStroke(new BasicStroke(2));
+            g2.setStroke(SELECTED_STROKE);
         }
         g2.drawRect(_x, _y, _textBox.getWidth() - 1, _textBox.getHeight() - 1);
         g2.setStroke(oldStroke);
 
-        ColorSupport.lookupMappedColorFor(configuration, _objectInfo.getFullName())
-        .ifPresent(paint->{
+        RenderResources resources = RenderResources.getInstance();
+        Color mappedColor = resources.getMappedColor(_objectInfo.getFullName());
+        if(mappedColor != null) {
             // draw a colored overlay, as per user's color mapping config
             int overlayBoxSize = _textBox.getHeight()/3;
-            g2.setPaint(ColorSupport.withTransparency((Color)paint,0.8f));
+            g2.setPaint(mappedColor);
             g2.fillRect(_x-2, _y-2, overlayBoxSize, overlayBoxSize);
-        });
+        }
 
         g2.setPaint(TEXT_COLOR);
         Font oldFont = g2.getFont();
         if(_objectInfo.hasAttribute(Info.ABSTRACT_ATTRIBUTE))
-            g2.setFont(new Font(oldFont.getFontName(), Font.ITALIC, oldFont.getSize()));
+            g2.setFont(resources.getItalicFont(oldFont));
         g2.drawString(_objectInfo.getName(), _x + _textBox.getPad(), _y + _textBox.getTextOffset());
         g2.setFont(oldFont);
     }
@@ -285,7 +315,7 @@ public class DisplayObject extends ScreenObject {
         return "DisplayObject " + _objectInfo.getName() + " seq " + _objectInfo.getSeq();
     }
 
-    private Paint determineBackgroundPaintForObject(Configuration configuration) {
+    Paint determineBackgroundPaintForObject(Configuration configuration) {
         return _objectInfo.hasAttribute(Info.EXTERNAL_ATTRIBUTE)
                 ? configuration.EXTERNAL_CLASS_COLOR
                 : _objectInfo.hasAttribute(Info.INTERFACE_ATTRIBUTE)
@@ -19,14 +19,12 @@ public class DisplaySelfCallReturn extends DisplaySelfLink {
         from.addCallReturn(this);
     }
 
-    void drawText(Graphics2D g2) {
+    boolean isTextShown() {
+        return false;
     }
 
-    void drawLine(Graphics2D g2) {
-        Stroke oldStroke = g2.getStroke();
-        g2.setStroke(DASH_STROKE);
-        super.drawLine(g2);
-        g2.setStroke(oldStroke);
+    Stroke getLineStroke() {
+        return DASH_STROKE;
     }
 
     public boolean isReturnLink() {
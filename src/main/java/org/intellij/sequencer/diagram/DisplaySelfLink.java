@@ -1,7 +1,6 @@
 package org.intellij.sequencer.diagram;
 
 import java.awt.*;
-import java.awt.geom.GeneralPath;
 
 public class DisplaySelfLink extends DisplayLink {
 
@@ -23,27 +22,29 @@ public class DisplaySelfLink extends DisplayLink {
         return getTextHeight() / 3;
     }
 
-    void drawLine(Graphics2D g2) {
-        super.drawLine(g2);
-        g2.drawLine(_lineEndX, getEndY(), _lineEndX, getEndY() + getLinkHeight());
-        g2.drawLine(_lineStartX, getEndY() + getLinkHeight(), _lineEndX, getEndY() + getLinkHeight());
+    Rectangle getPaintBounds() {
+        Rectangle bounds = super.getPaintBounds();
+        // the line back to the lifeline is drawn below the link
+        bounds.height += getLinkHeight();
+        return bounds;
     }
 
-    void drawArrow(Graphics2D g2) {
+    int[] getLinePoints() {
+        // out of the lifeline, down and back to it
         int lineY = getEndY() + getLinkHeight();
-        int arrowTailX = _lineStartX + 4;
-        g2.drawLine(arrowTailX, lineY - 3, _lineStartX, lineY);
-        g2.drawLine(arrowTailX, lineY + 3, _lineStartX, lineY);
+        return new int[]{_lineStartX, getEndY(), _lineEndX, getEndY(), _lineEndX, lineY, _lineStartX, lineY};
     }
 
-    @Override
-    void fillArrow(Graphics2D g2) {
-        int lineY = getEndY() + getLinkHeight();
-        int arrowTailX = _lineStartX + 4;
+    int getArrowTipX() {
+        return _lineStartX;
+    }
+
+    int getArrowTipY() {
+        return getEndY() + getLinkHeight();
+    }
 
-        int[] xPoints = {arrowTailX, _lineStartX, arrowTailX};
-        int[] yPoints = {lineY - 3, lineY, lineY + 3};
-        fillPolygon(g2, xPoints, yPoints);
+    boolean isArrowPointingRight() {
+        return false;
     }
 
     public String toString() {
@@ -0,0 +1,175 @@
+package org.intellij.sequencer.diagram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Activation bars of a lifeline by start and end sequence.
+ * <p>
+ * The bars are added in start order and are either nested or disjoint, as calls return in reverse order.
+ * Each bar keeps the bar directly enclosing it, the bars covering a point are the last bar started before
+ * it and the bars enclosing that one. Bars added out of order fall back to scanning all of them.
+ */
+class MethodIntervals {
+    private final List<DisplayMethod> _methods = new ArrayList<>();
+    private int[] _parents = new int[16];
+    private int[] _open = new int[16];
+    private int _openSize;
+    private int _maxEnclosingCount;
+    private boolean _nested = true;
+    private int[] _starts;
+    private int[] _ends;
+
+    /**
+     * @return the count of bars already added enclosing the new one
+     */
+    int add(DisplayMethod method) {
+        int start = method.getStartSeq();
+        int end = method.getEndSeq();
+        if (_nested && !_methods.isEmpty() && _methods.get(_methods.size() - 1).getStartSeq() >= start)
+            _nested = false;
+        if (_nested) {
+            while (_openSize > 0 && _methods.get(_open[_openSize - 1]).getEndSeq() < start)
+                --_openSize;
+            if (_openSize > 0 && _methods.get(_open[_openSize - 1]).getEndSeq() <= end)
+                _nested = false;
+        }
+
+        int enclosingCount;
+        int index = _methods.size();
+        if (_nested) {
+            enclosingCount = _openSize;
+            _parents = ensureCapacity(_parents, index + 1);
+            _parents[index] = _openSize > 0 ? _open[_openSize - 1] : -1;
+            _open = ensureCapacity(_open, _openSize + 1);
+            _open[_openSize++] = index;
+        } else {
+            enclosingCount = 0;
+            for (DisplayMethod otherMb : _methods) {
+                if ((otherMb.getStartSeq() < start) && (otherMb.getEndSeq() > end))
+                    ++enclosingCount;
+            }
+        }
+        _methods.add(method);
+        _maxEnclosingCount = Math.max(_maxEnclosingCount, enclosingCount);
+        _starts = null;
+        _ends = null;
+        return enclosingCount;
+    }
+
+    boolean isEmpty() {
+        return _methods.isEmpty();
+    }
+
+    int getMaxEnclosingCount() {
+        return _maxEnclosingCount;
+    }
+
+    List<DisplayMethod> getMethods() {
+        return Collections.unmodifiableList(_methods);
+    }
+
+    /**
+     * @return the bars overlapping the sequence range, in the order they were added
+     */
+    List<DisplayMethod> findOverlapping(int fromSeq, int toSeq) {
+        List<DisplayMethod> result = new ArrayList<>();
+        if (!_nested) {
+            for (DisplayMethod methodBox : _methods) {
+                if (methodBox.getStartSeq() <= toSeq && methodBox.getEndSeq() >= fromSeq)
+                    result.add(methodBox);
+            }
+            return result;
+        }
+
+        int low = 0;
+        int high = _methods.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_methods.get(middle).getStartSeq() < fromSeq)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        // the bars started before the range and still open are the last one and the ones enclosing it
+        for (int i = low - 1; i >= 0; i = _parents[i]) {
+            if (_methods.get(i).getEndSeq() >= fromSeq)
+                result.add(_methods.get(i));
+        }
+        Collections.reverse(result);
+        for (int i = low; i < _methods.size() && _methods.get(i).getStartSeq() <= toSeq; i++) {
+            result.add(_methods.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the count of bars covering the sequence
+     */
+    int depth(int seq) {
+        if (_starts == null) {
+            _starts = new int[_methods.size()];
+            _ends = new int[_methods.size()];
+            for (int i = 0; i < _methods.size(); i++) {
+                _starts[i] = _methods.get(i).getStartSeq();
+                _ends[i] = _methods.get(i).getEndSeq();
+            }
+            Arrays.sort(_starts);
+            Arrays.sort(_ends);
+        }
+        // bars started at seq the latest, less the ones ended before it
+        return countNotAbove(_starts, seq) - countNotAbove(_ends, seq - 1);
+    }
+
+    /**
+     * @return the right most bar in range of the point, the first added one if several are at the same x
+     */
+    DisplayMethod find(int x, int y) {
+        DisplayMethod selectedMethodBox = null;
+        if (!_nested) {
+            for (DisplayMethod methodBox : _methods) {
+                if (methodBox.isInRange(x, y))
+                    if ((selectedMethodBox == null || selectedMethodBox.getX() < methodBox.getX()))
+                        selectedMethodBox = methodBox;
+            }
+            return selectedMethodBox;
+        }
+
+        // bar tops grow with the start sequence, find the last bar starting above the point
+        int low = 0;
+        int high = _methods.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (_methods.get(middle).getY() <= y)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        for (int i = low - 1; i >= 0; i = _parents[i]) {
+            DisplayMethod methodBox = _methods.get(i);
+            if (methodBox.isInRange(x, y))
+                if ((selectedMethodBox == null || selectedMethodBox.getX() <= methodBox.getX()))
+                    selectedMethodBox = methodBox;
+        }
+        return selectedMethodBox;
+    }
+
+    private static int countNotAbove(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= value)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
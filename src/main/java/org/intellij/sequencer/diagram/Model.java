@@ -1,17 +1,23 @@
 package org.intellij.sequencer.diagram;
 
+import com.google.gson.JsonParseException;
 import org.apache.log4j.Logger;
+import org.intellij.sequencer.generator.CallStack;
+import org.intellij.sequencer.generator.SequenceBinaryFormat;
 
 import javax.swing.event.EventListenerList;
 import javax.swing.event.SwingPropertyChangeSupport;
 import java.beans.PropertyChangeListener;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class Model {
 
     private static final Logger LOGGER = Logger.getLogger(Model.class);
 
     private String _queryString = " ";
+    private CallStack _callStack = null;
 
     private SwingPropertyChangeSupport _changeSupport = null;
 
@@ -41,6 +47,21 @@ public class Model {
 
     public boolean readFromFile(File f) {
         try {
+            CallStack callStack;
+            if (SequenceBinaryFormat.isBinary(f)) {
+                try (InputStream in = new FileInputStream(f)) {
+                    callStack = SequenceBinaryFormat.read(in);
+                }
+            } else {
+                callStack = readCallStack(f);
+            }
+            if (callStack != null) {
+                setFile(f);
+                internalSetCallStack(callStack, this);
+                setModified(false);
+                return true;
+            }
+
             StringBuilder sb = new StringBuilder(1024);
             BufferedReader br = new BufferedReader(new FileReader(f));
             String s;
@@ -59,13 +80,49 @@ public class Model {
         }
     }
 
+    /**
+     * Stream the text of a file into a call stack, so the text is not kept in memory.
+     *
+     * @return null if the text is not a single call stack, it is then loaded as text
+     */
+    private CallStack readCallStack(File f) {
+        try (Reader reader = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+            return CallStack.readSequence(reader);
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            // malformed or not a single call stack, see CallStack.readSequence() and the gson JsonReader
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("readCallStack(...) loading as text " + f, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the text format, or the binary one if the file has the {@link SequenceBinaryFormat#EXTENSION}.
+     */
     public boolean writeToFile(File f) {
         try {
+            if (f.getName().endsWith("." + SequenceBinaryFormat.EXTENSION)) {
+                CallStack callStack = _callStack != null ? _callStack : CallStack.readSequence(new StringReader(getText()));
+                if (callStack == null)
+                    return false;
+                try (OutputStream out = new FileOutputStream(f)) {
+                    SequenceBinaryFormat.write(callStack, out);
+                }
+                setFile(f);
+                setModified(false);
+                return true;
+            }
             PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
-            BufferedReader br = new BufferedReader(new StringReader(getText()));
-            String s;
-            while((s = br.readLine()) != null) {
-                out.println(s);
+            if (_queryString == null) {
+                // the generated text is a single line
+                _callStack.writeSequence(out);
+                out.println();
+            } else {
+                BufferedReader br = new BufferedReader(new StringReader(getText()));
+                String s;
+                while((s = br.readLine()) != null) {
+                    out.println(s);
+                }
             }
             out.close();
             setFile(f);
@@ -97,6 +154,8 @@ public class Model {
     }
 
     public String getText() {
+        if (_queryString == null)
+            _queryString = _callStack.generateSequence();
         return _queryString;
     }
 
@@ -107,7 +166,27 @@ public class Model {
 
     private void internalSetText(String s, Object setter) {
         _queryString = s;
-        fireModelTextEvent(s, setter);
+        _callStack = null;
+        fireModelTextEvent(s, null, setter);
+    }
+
+    public CallStack getCallStack() {
+        return _callStack;
+    }
+
+    /**
+     * Set the model to a generated call stack, the listeners can build from it directly
+     * and the text is only generated when asked for.
+     */
+    public void setCallStack(CallStack callStack, Object setter) {
+        internalSetCallStack(callStack, setter);
+        setModified(true);
+    }
+
+    private void internalSetCallStack(CallStack callStack, Object setter) {
+        _queryString = null;
+        _callStack = callStack;
+        fireModelTextEvent(null, callStack, setter);
     }
 
     public File getFile() {
@@ -122,8 +201,8 @@ public class Model {
         _listenerList.remove(ModelTextListener.class, l);
     }
 
-    private synchronized void fireModelTextEvent(String s, Object setter) {
-        ModelTextEvent mte = new ModelTextEvent(setter, s);
+    private synchronized void fireModelTextEvent(String s, CallStack callStack, Object setter) {
+        ModelTextEvent mte = new ModelTextEvent(setter, s, callStack);
         Object[] listeners = _listenerList.getListenerList();
         for(int i = listeners.length - 2; i >= 0; i -= 2) {
             if(listeners[i] == ModelTextListener.class)
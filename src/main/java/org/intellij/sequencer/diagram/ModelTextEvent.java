@@ -1,17 +1,30 @@
 package org.intellij.sequencer.diagram;
 
+import org.intellij.sequencer.generator.CallStack;
+
 import java.util.EventObject;
 
 public class ModelTextEvent extends EventObject {
 
     private String _text = null;
+    private CallStack _callStack = null;
 
-    ModelTextEvent(Object source, String text) {
+    ModelTextEvent(Object source, String text, CallStack callStack) {
         super(source);
         _text = text;
+        _callStack = callStack;
     }
 
     public String getText() {
+        if (_text == null && _callStack != null)
+            _text = _callStack.generateSequence();
         return _text;
     }
+
+    /**
+     * @return the generated call stack the model was set to, or null if it was set to a text
+     */
+    public CallStack getCallStack() {
+        return _callStack;
+    }
 }
@@ -24,18 +24,17 @@ public class ObjectInfo extends Info {
     public void addMethod(MethodInfo mi) {
         if(LOGGER.isDebugEnabled())
             LOGGER.debug("addMethod(" + mi + ")");
-        int possible = -1;
-        for(int i = 0; i < _methods.size(); ++i) {
-            MethodInfo otherMethod = _methods.get(i);
-            if(otherMethod.getStartSeq() > mi.getStartSeq()) {
-                possible = i;
-                break;
-            }
+        // the methods are kept sorted by start, insert after the ones not starting later
+        int low = 0;
+        int high = _methods.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(_methods.get(middle).getStartSeq() > mi.getStartSeq())
+                high = middle;
+            else
+                low = middle + 1;
         }
-        if(possible == -1)
-            _methods.add(mi);
-        else
-            _methods.add(possible, mi);
+        _methods.add(low, mi);
     }
 
     public List<MethodInfo> getMethods() {
@@ -1,8 +1,10 @@
 package org.intellij.sequencer.diagram;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.log4j.Logger;
 import org.intellij.sequencer.Constants;
+import org.intellij.sequencer.generator.CallStack;
 import org.intellij.sequencer.generator.ClassDescription;
 import org.intellij.sequencer.generator.LambdaExprDescription;
 import org.intellij.sequencer.generator.MethodDescription;
@@ -10,6 +12,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.io.PushbackReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.*;
 
@@ -27,27 +30,58 @@ public class Parser {
     }
 
     public void parse(String sequenceStr) throws IOException {
-        parse(new PushbackReader(new StringReader(sequenceStr)));
+        parse(new StringReader(sequenceStr));
     }
 
     public void parse(PushbackReader reader) throws IOException {
-        while (true) {
-            skipWhitespace(reader);
-            int c = reader.read();
-            if (c == -1) {
-                break;
-            } else if (c == '(') {
-                String methodName = readIdent(reader);
-                addCall(methodName);
-            } else if (c == ')') {
-                addReturn();
-            } else {
-                LOGGER.error("Error '" + (char) c + "'");
+        parse((Reader) reader);
+    }
+
+    /**
+     * Parse the text in one pass. The brackets are read as unquoted strings of a lenient json reader,
+     * which reads the method json following an opening bracket as well.
+     */
+    public void parse(Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        JsonToken token;
+        while ((token = jsonReader.peek()) != JsonToken.END_DOCUMENT) {
+            if (token != JsonToken.STRING) {
+                LOGGER.error("Error " + token);
+                jsonReader.skipValue();
+                continue;
+            }
+            String brackets = jsonReader.nextString();
+            for (int i = 0; i < brackets.length(); i++) {
+                char c = brackets.charAt(i);
+                if (c == '(') {
+                    addCall(MethodDescription.readJson(jsonReader));
+                } else if (c == ')') {
+                    addReturn();
+                } else {
+                    LOGGER.error("Error '" + c + "'");
+                }
             }
         }
         resolveBackCalls();
     }
 
+    /**
+     * Same as parsing the {@link CallStack#generateSequence()} text, without going through it.
+     */
+    public void parse(CallStack callStack) {
+        addCalls(callStack);
+        resolveBackCalls();
+    }
+
+    private void addCalls(CallStack callStack) {
+        addCall(callStack.getMethod());
+        for (CallStack call : callStack.getCalls()) {
+            addCalls(call);
+        }
+        addReturn();
+    }
+
     private void resolveBackCalls() {
         HashMap<Numbering, MethodInfo> callsMap = new HashMap<Numbering, MethodInfo>();
         for (Link link : _linkList) {
@@ -70,15 +104,9 @@ public class Parser {
         return _objList;
     }
 
-    private void addCall(String calledMethod) {
-        Gson gson = new Gson();
-        MethodDescription m = gson.fromJson(calledMethod, MethodDescription.class);
+    private void addCall(MethodDescription m) {
         boolean isLambda = Objects.equals(m.getMethodName(), Constants.Lambda_Invoke);
 
-        if (isLambda) {
-            m = gson.fromJson(calledMethod, LambdaExprDescription.class);
-        }
-
         ClassDescription c = m.getClassDescription();
         if (_objList.isEmpty()) {
             ObjectInfo objectInfo = new ObjectInfo(ObjectInfo.ACTOR_NAME, new ArrayList<>(), _currentHorizontalSeq);
@@ -157,80 +185,6 @@ public class Parser {
         }
     }
 
-    private String readIdent(PushbackReader reader) throws IOException {
-
-        skipWhitespace(reader);
-        String result = readNonWhitespace(reader);
-        skipWhitespace(reader);
-
-        if (LOGGER.isDebugEnabled())
-            LOGGER.debug("readIdent(...) returning " + result);
-
-        return result;
-    }
-
-    private void skipWhitespace(PushbackReader reader) throws IOException {
-
-        int c = -1;
-        while (Character.isWhitespace((char) (c = reader.read()))) {
-        }
-        if (c != -1)
-            reader.unread(c);
-    }
-
-    private String readNonWhitespace(PushbackReader r) throws IOException {
-        int c = -1;
-        StringBuffer sb = new StringBuffer();
-        int deep = 0;
-        boolean isGeneric = false;
-        while ((c = r.read()) != -1) {
-            if (c == ')')
-                break;
-            else if (c == '\\') {
-                int u = r.read();
-                if (u != -1 && u == 'u') {
-                    StringBuilder tmp = new StringBuilder();
-                    tmp.append((char) c).append((char) u);
-                    for (int j = 0; j < 4; j++) {
-                        u = r.read();
-                        tmp.append((char) u);
-                    }
-                    if (tmp.toString().equals("\\u003c")) {
-                        deep++;
-                        isGeneric = true;
-                        sb.append(tmp.toString());
-                    } else if (tmp.toString().equals("\\u003e")) {
-                        deep--;
-                        if (deep == 0)
-                            isGeneric = false;
-                        sb.append(tmp.toString());
-                    } else {
-                        sb.append(tmp.toString());
-                    }
-                }
-            } else if (c == '<') {
-                deep++;
-                isGeneric = true;
-                sb.append((char) c);
-            } else if (c == '>') {
-                deep--;
-                if (deep == 0)
-                    isGeneric = false;
-                sb.append((char) c);
-            } else if (Character.isWhitespace((char) c)) {
-                if (isGeneric) {
-                    sb.append((char) c);
-                } else {
-                    break;
-                }
-            } else
-                sb.append((char) c);
-        }
-        if (c != -1)
-            r.unread(c);
-        return sb.toString();
-    }
-
     private class CallInfoStack {
         private Stack<CallInfo> stack = new Stack<>();
         private CallInfo nPointerCallInfo;
@@ -358,9 +312,14 @@ public class Parser {
 
         public LambdaInfo(ObjectInfo obj, MethodDescription m, int startingSeq) {
             super(obj, m, startingSeq);
-            LambdaExprDescription lm = (LambdaExprDescription) m;
-            this._enclosedMethodName = lm.getEnclosedMethodName();
-            this._enclosedMethodArgTypes = lm.getEnclosedMethodArgTypes();
+            if (m instanceof LambdaExprDescription) {
+                LambdaExprDescription lm = (LambdaExprDescription) m;
+                this._enclosedMethodName = lm.getEnclosedMethodName();
+                this._enclosedMethodArgTypes = lm.getEnclosedMethodArgTypes();
+            } else {
+                this._enclosedMethodName = null;
+                this._enclosedMethodArgTypes = null;
+            }
         }
 
         public String getEnclosedMethodName() {
@@ -0,0 +1,57 @@
+package org.intellij.sequencer.diagram;
+
+import org.intellij.sequencer.config.ColorSupport;
+import org.intellij.sequencer.config.Configuration;
+
+import java.awt.*;
+
+/**
+ * Fonts and colors of the diagram derived from a version of the configuration,
+ * created once so painting does not allocate them again.
+ */
+final class RenderResources {
+    private static volatile RenderResources _current;
+
+    private final int _version;
+    private final Configuration _configuration;
+    private final Font _font;
+    private final Font _italicFont;
+
+    private RenderResources(Configuration configuration) {
+        _version = configuration.getVersion();
+        _configuration = configuration;
+        _font = new Font(configuration.FONT_NAME, Font.PLAIN, configuration.FONT_SIZE);
+        _italicFont = new Font(_font.getFontName(), Font.ITALIC, _font.getSize());
+    }
+
+    /**
+     * @return the resources of the current configuration
+     */
+    static RenderResources getInstance() {
+        Configuration configuration = Configuration.getInstance();
+        RenderResources current = _current;
+        if (current == null || current._configuration != configuration || current._version != configuration.getVersion()) {
+            current = new RenderResources(configuration);
+            _current = current;
+        }
+        return current;
+    }
+
+    Font getFont() {
+        return _font;
+    }
+
+    /**
+     * @return the italic variant of the font painted with
+     */
+    Font getItalicFont(Font font) {
+        return font.equals(_font) ? _italicFont : new Font(font.getFontName(), Font.ITALIC, font.getSize());
+    }
+
+    /**
+     * @return the translucent color mapped to the class, or null if there is none
+     */
+    Color getMappedColor(String fullName) {
+        return ColorSupport.lookupTranslucentMappedColorFor(_configuration, fullName);
+    }
+}
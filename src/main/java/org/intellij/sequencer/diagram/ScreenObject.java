@@ -4,6 +4,8 @@ import java.awt.*;
 
 public abstract class ScreenObject {
 
+    private static final int PAINT_MARGIN = 4;
+
     private boolean _selected;
 
     public abstract String getToolTip();
@@ -21,6 +23,15 @@ public abstract class ScreenObject {
                 getY() <= y && y <= getY() + getHeight();
     }
 
+    /**
+     * @return the area painted by the object, more than its bounds for the arrow heads and selection marks
+     */
+    Rectangle getPaintBounds() {
+        Rectangle bounds = new Rectangle(getX(), getY(), getWidth(), getHeight());
+        bounds.grow(PAINT_MARGIN, PAINT_MARGIN);
+        return bounds;
+    }
+
     public boolean isSelected() {
         return _selected;
     }
@@ -0,0 +1,89 @@
+package org.intellij.sequencer.diagram;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Uniform grid over the laid out bounds of screen objects, a point is only tested against the objects of its cell.
+ * The objects of a cell keep the order they are given in.
+ */
+class ScreenObjectGrid<T extends ScreenObject> {
+    // the bounds are widened by the pixel a selected link grows by, and rounding of the callers
+    private static final int MARGIN = 2;
+    private static final int[] EMPTY = new int[0];
+
+    private final List<T> _objects;
+    private final int _cellWidth;
+    private final int _cellHeight;
+    private final int _columns;
+    private final int _rows;
+    private final int[][] _cells;
+
+    ScreenObjectGrid(List<T> objects, int cellWidth, int cellHeight) {
+        this(objects, cellWidth, cellHeight, o -> new Rectangle(o.getX(), o.getY(), o.getWidth(), o.getHeight()));
+    }
+
+    ScreenObjectGrid(List<T> objects, int cellWidth, int cellHeight, Function<T, Rectangle> bounds) {
+        _objects = objects;
+        _cellWidth = cellWidth;
+        _cellHeight = cellHeight;
+
+        Rectangle[] allBounds = new Rectangle[objects.size()];
+        int right = 0;
+        int bottom = 0;
+        for (int i = 0; i < objects.size(); i++) {
+            Rectangle r = bounds.apply(objects.get(i));
+            allBounds[i] = r;
+            right = Math.max(right, r.x + r.width + MARGIN);
+            bottom = Math.max(bottom, r.y + r.height + MARGIN);
+        }
+        _columns = right / cellWidth + 1;
+        _rows = bottom / cellHeight + 1;
+
+        int[][] cells = new int[_columns * _rows][];
+        int[] sizes = new int[cells.length];
+        for (int i = 0; i < allBounds.length; i++) {
+            Rectangle r = allBounds[i];
+            int lastColumn = column(r.x + r.width + MARGIN);
+            int lastRow = row(r.y + r.height + MARGIN);
+            for (int row = row(r.y - MARGIN); row <= lastRow; row++) {
+                for (int column = column(r.x - MARGIN); column <= lastColumn; column++) {
+                    int cell = row * _columns + column;
+                    if (cells[cell] == null)
+                        cells[cell] = new int[4];
+                    else if (sizes[cell] == cells[cell].length)
+                        cells[cell] = Arrays.copyOf(cells[cell], sizes[cell] * 2);
+                    cells[cell][sizes[cell]++] = i;
+                }
+            }
+        }
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = cells[cell] == null ? EMPTY : Arrays.copyOf(cells[cell], sizes[cell]);
+        }
+        _cells = cells;
+    }
+
+    /**
+     * @return the objects which may be in range of the point, in the order they were given
+     */
+    List<T> find(int x, int y) {
+        // the cells at the border also hold the objects beyond it
+        int[] cell = _cells[row(y) * _columns + column(x)];
+        List<T> result = new ArrayList<>(cell.length);
+        for (int i : cell) {
+            result.add(_objects.get(i));
+        }
+        return result;
+    }
+
+    private int column(int x) {
+        return Math.min(Math.max(x, 0) / _cellWidth, _columns - 1);
+    }
+
+    private int row(int y) {
+        return Math.min(Math.max(y, 0) / _cellHeight, _rows - 1);
+    }
+}
@@ -1,9 +1,24 @@
 package org.intellij.sequencer.diagram;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
 import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 class TextBox {
+    private static final int MAX_MEASURED = 4096;
+    // the labels of a diagram repeat a lot, shared by the layouts running concurrently
+    private static final Map<Measured, Rectangle2D> MEASURED = Collections.synchronizedMap(
+            new LinkedHashMap<Measured, Rectangle2D>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Measured, Rectangle2D> eldest) {
+                    return size() > MAX_MEASURED;
+                }
+            });
 
     private int _pad = 5;
 
@@ -41,15 +56,60 @@ class TextBox {
         return (int)_rect.getHeight();
     }
 
-    void init(Graphics2D g2) {
-        FontMetrics fm = g2.getFontMetrics();
-        int height = fm.getMaxAscent() + fm.getMaxDescent();
+    /**
+     * Measure the text without a graphics, e.g. off the EDT.
+     */
+    void init(Font font, FontRenderContext frc) {
+        LineMetrics lineMetrics = font.getLineMetrics(_text, frc);
+        // rounded up as by FontMetrics.getMaxAscent() and getMaxDescent()
+        int maxAscent = (int)(lineMetrics.getAscent() + 0.95f);
+        int maxDescent = (int)(lineMetrics.getDescent() + 0.95f);
+        int height = maxAscent + maxDescent;
 
-        _rect = fm.getStringBounds(_text, g2);
+        _rect = getStringBounds(_text, font, frc);
 
         _boxHeight = height + (_pad * 2);
         _boxWidth = (int)_rect.getWidth() + (_pad * 2);
-        _textOffset = fm.getMaxAscent() + _pad;
+        _textOffset = maxAscent + _pad;
+    }
+
+    /**
+     * @return the bounds of the text, never to be changed as they are shared
+     */
+    private static Rectangle2D getStringBounds(String text, Font font, FontRenderContext frc) {
+        Measured key = new Measured(text, font, frc);
+        Rectangle2D bounds = MEASURED.get(key);
+        if (bounds == null) {
+            bounds = font.getStringBounds(text, frc);
+            MEASURED.put(key, bounds);
+        }
+        return bounds;
+    }
+
+    private static class Measured {
+        private final String text;
+        // compares name, style, size and transform
+        private final Font font;
+        private final FontRenderContext frc;
+
+        private Measured(String text, Font font, FontRenderContext frc) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Measured measured = (Measured) o;
+            return Objects.equals(text, measured.text) && font.equals(measured.font) && frc.equals(measured.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, font, frc);
+        }
     }
 }
 
@@ -30,7 +30,10 @@ public class ExportAction extends SequenceAction {
 
     private void export(File file) {
         try {
-            _display.saveImageToFile(file);
+            if (file.getName().endsWith(".svg"))
+                _display.saveSvgToFile(file);
+            else
+                _display.saveImageToFile(file);
         } catch(IOException e) {
             e.printStackTrace();
         }
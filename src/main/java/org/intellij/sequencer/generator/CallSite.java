@@ -0,0 +1,119 @@
+package org.intellij.sequencer.generator;
+
+import com.intellij.psi.PsiMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A step recorded while walking a method body, see {@link CallSiteCollector}.
+ * The sites hold resolved methods only, filters are applied when they are replayed by {@link SequenceGenerator}.
+ */
+abstract class CallSite {
+
+    abstract boolean isValid();
+
+    /**
+     * Call of a resolved method.
+     */
+    static class Call extends CallSite {
+        private final PsiMethod _method;
+
+        Call(PsiMethod method) {
+            _method = method;
+        }
+
+        PsiMethod getMethod() {
+            return _method;
+        }
+
+        @Override
+        boolean isValid() {
+            return _method.isValid();
+        }
+    }
+
+    /**
+     * Interface to implementation binding found along the way.
+     */
+    static class Implementation extends CallSite {
+        private final String _face;
+        private final String _impl;
+        private final boolean _smartInterfaceOnly;
+
+        Implementation(String face, String impl, boolean smartInterfaceOnly) {
+            _face = face;
+            _impl = impl;
+            _smartInterfaceOnly = smartInterfaceOnly;
+        }
+
+        String getFace() {
+            return _face;
+        }
+
+        String getImpl() {
+            return _impl;
+        }
+
+        boolean isSmartInterfaceOnly() {
+            return _smartInterfaceOnly;
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+    }
+
+    /**
+     * Method body, lambda expression or method of a local class. Sites recorded inside are nested under it.
+     */
+    static class Scope extends CallSite {
+        private final MethodDescription _method;
+        private final List<CallSite> _sites = new ArrayList<>();
+        private Scope _tail;
+
+        Scope(MethodDescription method) {
+            _method = method;
+        }
+
+        MethodDescription getMethod() {
+            return _method;
+        }
+
+        List<CallSite> getSites() {
+            return Collections.unmodifiableList(_sites);
+        }
+
+        void add(CallSite site) {
+            _sites.add(site);
+        }
+
+        Scope addScope(MethodDescription method) {
+            Scope scope = new Scope(method);
+            _sites.add(scope);
+            return scope;
+        }
+
+        /**
+         * @return the scope the walk of the method body ended in, calls following the body are nested there
+         */
+        Scope getTail() {
+            return _tail;
+        }
+
+        void setTail(Scope tail) {
+            _tail = tail;
+        }
+
+        @Override
+        boolean isValid() {
+            for (CallSite site : _sites) {
+                if (!site.isValid())
+                    return false;
+            }
+            return true;
+        }
+    }
+}
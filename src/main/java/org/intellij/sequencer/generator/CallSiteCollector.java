@@ -0,0 +1,188 @@
+package org.intellij.sequencer.generator;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.containers.Stack;
+import org.intellij.sequencer.util.PsiUtil;
+
+/**
+ * Walks a method body once and records the resolved calls as {@link CallSite}s.
+ * The result is cached on the method until its file or the java structure of the project changes,
+ * so regenerating or re-filtering a diagram does not resolve the same calls again.
+ */
+class CallSiteCollector extends JavaElementVisitor {
+    private static final Key<CachedValue<CallSite.Scope>> CALL_SITES_KEY = Key.create("SequenceDiagram.CallSites");
+
+    private final Stack<PsiCallExpression> _exprStack = new Stack<>();
+    private final Stack<CallSite.Scope> _scopeStack = new Stack<>();
+    private CallSite.Scope currentScope;
+
+    private CallSiteCollector(CallSite.Scope topScope) {
+        currentScope = topScope;
+    }
+
+    static CallSite.Scope getCallSites(PsiMethod psiMethod) {
+        CachedValuesManager manager = CachedValuesManager.getManager(psiMethod.getProject());
+        CallSite.Scope callSites = manager.getCachedValue(psiMethod, CALL_SITES_KEY, () -> collect(psiMethod), false);
+        if (!callSites.isValid()) {
+            // a called method was reparsed without a structure change
+            psiMethod.putUserData(CALL_SITES_KEY, null);
+            callSites = manager.getCachedValue(psiMethod, CALL_SITES_KEY, () -> collect(psiMethod), false);
+        }
+        return callSites;
+    }
+
+    private static CachedValueProvider.Result<CallSite.Scope> collect(PsiMethod psiMethod) {
+        CallSite.Scope topScope = new CallSite.Scope(null);
+        CallSiteCollector collector = new CallSiteCollector(topScope);
+        psiMethod.acceptChildren(collector);
+        topScope.setTail(collector.currentScope);
+
+        PsiFile containingFile = psiMethod.getContainingFile();
+        PsiModificationTracker tracker = PsiManager.getInstance(psiMethod.getProject()).getModificationTracker();
+        return CachedValueProvider.Result.create(topScope,
+                containingFile != null ? containingFile : PsiModificationTracker.MODIFICATION_COUNT,
+                tracker.getJavaStructureModificationTracker());
+    }
+
+    /**
+     * Find the implementation class of an abstract variable type from its initializer.
+     *
+     * @return canonical text of the implementation type, or null if there is none
+     */
+    static String findImplementation(PsiJavaCodeReferenceElement referenceElement, PsiType psiType, PsiExpression initializer) {
+        if (referenceElement != null) {
+            PsiClass psiClass = (PsiClass) referenceElement.resolve();
+
+            if (PsiUtil.isAbstract(psiClass)) {
+                String type = psiType.getCanonicalText();
+                if (initializer instanceof PsiNewExpression) {
+                    PsiType initializerType = initializer.getType();
+                    if (initializerType != null) {
+                        String impl = initializerType.getCanonicalText();
+                        if (!type.equals(impl)) {
+                            return impl;
+                        }
+                    }
+
+                }
+            }
+        }
+        return null;
+    }
+
+    public void visitElement(PsiElement psiElement) {
+        psiElement.acceptChildren(this);
+    }
+
+    @Override
+    public void visitMethod(PsiMethod psiMethod) {
+        // method of a local or anonymous class
+        currentScope = currentScope.addScope(SequenceGenerator.createMethod(psiMethod));
+        super.visitMethod(psiMethod);
+    }
+
+    @Override
+    public void visitLambdaExpression(PsiLambdaExpression expression) {
+        currentScope = currentScope.addScope(SequenceGenerator.createMethod(expression));
+        super.visitLambdaExpression(expression);
+    }
+
+    @Override
+    public void visitCallExpression(PsiCallExpression callExpression) {
+        if (PsiUtil.isPipeline(callExpression)) {
+            _exprStack.push(callExpression);
+            _scopeStack.push(currentScope);
+
+            callExpression.getFirstChild().acceptChildren(this);
+
+            if (!_exprStack.isEmpty()) {
+                CallSite.Scope old = currentScope;
+                PsiCallExpression pop = _exprStack.pop();
+                currentScope = _scopeStack.pop();
+                methodCall(pop, pop.resolveMethod());
+                currentScope = old;
+            }
+            super.visitCallExpression(callExpression);
+        } else if (PsiUtil.isComplexCall(callExpression)) {
+            _exprStack.push(callExpression);
+            _scopeStack.push(currentScope);
+            super.visitCallExpression(callExpression);
+            if (!_exprStack.isEmpty()) {
+                CallSite.Scope old = currentScope;
+                PsiCallExpression pop = _exprStack.pop();
+                currentScope = _scopeStack.pop();
+                methodCall(pop, pop.resolveMethod());
+                currentScope = old;
+            }
+        } else {
+            methodCall(callExpression, callExpression.resolveMethod());
+            super.visitCallExpression(callExpression);
+        }
+    }
+
+    private void methodCall(PsiCallExpression callExpression, PsiMethod psiMethod) {
+        if (psiMethod == null) return;
+        findAbstractImplFilter(callExpression, psiMethod);
+        currentScope.add(new CallSite.Call(psiMethod));
+    }
+
+    /**
+     * If the psiMethod's containing class is Interface or abstract, then try to find it's implement class.
+     *
+     * @param callExpression expression
+     * @param psiMethod method
+     */
+    private void findAbstractImplFilter(PsiCallExpression callExpression, PsiMethod psiMethod) {
+        try {
+            PsiClass containingClass = psiMethod.getContainingClass();
+            if (PsiUtil.isAbstract(containingClass)) {
+                String type = containingClass.getQualifiedName();
+                if (type == null) return;
+
+                PsiMethodCallExpression psiMethodCallExpression = (PsiMethodCallExpression) callExpression;
+                PsiExpression qualifierExpression = psiMethodCallExpression.getMethodExpression().getQualifierExpression();
+
+                if (qualifierExpression == null) return;
+
+                PsiType psiType = qualifierExpression.getType();
+
+                if (psiType == null) return;
+
+                String impl = psiType.getCanonicalText();
+
+                if (!impl.startsWith(type))
+                    currentScope.add(new CallSite.Implementation(type, impl, false));
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+    }
+
+    @Override
+    public void visitLocalVariable(PsiLocalVariable variable) {
+        PsiJavaCodeReferenceElement referenceElement = variable.getTypeElement().getInnermostComponentReferenceElement();
+
+        String impl = findImplementation(referenceElement, variable.getType(), variable.getInitializer());
+        if (impl != null)
+            currentScope.add(new CallSite.Implementation(variable.getType().getCanonicalText(), impl, false));
+
+        super.visitLocalVariable(variable);
+    }
+
+    @Override
+    public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+        PsiExpression re = expression.getRExpression();
+        if (re instanceof PsiNewExpression) {
+            PsiType faceType = expression.getType();
+            PsiType implType = re.getType();
+            if (faceType != null && implType != null)
+                currentScope.add(new CallSite.Implementation(faceType.getCanonicalText(), implType.getCanonicalText(), true));
+        }
+        super.visitAssignmentExpression(expression);
+    }
+}
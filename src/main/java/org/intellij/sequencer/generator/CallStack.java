@@ -1,13 +1,26 @@
 package org.intellij.sequencer.generator;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CallStack {
     private final MethodDescription _method;
     private CallStack _parent;
     private final List<CallStack> _calls = new ArrayList<>();
+    private int _depth;
 
     public CallStack(MethodDescription method) {
         _method = method;
@@ -24,6 +37,89 @@ public class CallStack {
         return callStack;
     }
 
+    /**
+     * @param depth generation depth the method body is visited at, see {@link #isExpanded(int)}
+     */
+    CallStack methodCall(MethodDescription method, int depth) {
+        CallStack callStack = methodCall(method);
+        callStack._depth = depth;
+        return callStack;
+    }
+
+    CallStack getParent() {
+        return _parent;
+    }
+
+    int getDepth() {
+        return _depth;
+    }
+
+    /**
+     * @return true if the method body was visited when generating, false for the calls at max depth
+     */
+    boolean isExpanded(int maxDepth) {
+        return _depth < maxDepth;
+    }
+
+    /**
+     * Collect the expanded calls of the given methods, the calls below a collected one are skipped.
+     */
+    void findExpandedCalls(Set<MethodDescription> methods, int maxDepth, List<CallStack> result) {
+        if (isExpanded(maxDepth) && !(_method instanceof LambdaExprDescription) && methods.contains(_method)) {
+            result.add(this);
+            return;
+        }
+        for (CallStack callStack : _calls) {
+            callStack.findExpandedCalls(methods, maxDepth, result);
+        }
+    }
+
+    int getCallCount() {
+        return _calls.size();
+    }
+
+    /**
+     * Move the last added call in place of the given one.
+     */
+    void replaceWithLastCall(CallStack call) {
+        CallStack newCall = _calls.remove(_calls.size() - 1);
+        _calls.set(_calls.indexOf(call), newCall);
+    }
+
+    void removeCall(CallStack call) {
+        _calls.remove(call);
+    }
+
+    /**
+     * @return an empty stand-in of this call stack, calls can be added to it concurrently
+     * and moved back with {@link #adoptCalls(CallStack)}
+     */
+    CallStack fork() {
+        CallStack fork = new CallStack(_method, _parent);
+        fork._depth = _depth;
+        return fork;
+    }
+
+    void adoptCalls(CallStack fork) {
+        for (CallStack callStack : fork._calls) {
+            callStack._parent = this;
+            _calls.add(callStack);
+        }
+    }
+
+    CallStack copy() {
+        return copy(null);
+    }
+
+    private CallStack copy(CallStack parent) {
+        CallStack copy = new CallStack(_method, parent);
+        copy._depth = _depth;
+        for (CallStack callStack : _calls) {
+            copy._calls.add(callStack.copy(copy));
+        }
+        return copy;
+    }
+
     public boolean isRecursive(MethodDescription method) {
         CallStack current = this;
         while(current != null) {
@@ -35,25 +131,87 @@ public class CallStack {
     }
 
     public String generateSequence() {
-        StringBuffer buffer = new StringBuffer();
-        generate(buffer);
-        return buffer.toString();
+        StringWriter writer = new StringWriter();
+        try {
+            writeSequence(writer);
+        } catch (IOException e) {
+            // not thrown by StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the text of {@link #generateSequence()} to the writer as the tree is walked,
+     * every method is written by one json writer instead of going through a string.
+     */
+    public void writeSequence(Writer writer) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        // a method json follows the previous one in the same document
+        jsonWriter.setLenient(true);
+        writeSequence(writer, jsonWriter);
+        jsonWriter.flush();
     }
 
     public MethodDescription getMethod() {
         return _method;
     }
 
-    private void generate(StringBuffer buffer) {
-        buffer.append('(').append(_method.toJson()).append(' ');
+    public List<CallStack> getCalls() {
+        return Collections.unmodifiableList(_calls);
+    }
+
+    /**
+     * Read the text written by {@link #writeSequence(Writer)} back into a call stack.
+     * The text is streamed, equal strings of the methods are shared.
+     *
+     * @return the call stack of the text, or null if there is none
+     * @throws IOException if the text is malformed or holds more than one call stack
+     */
+    public static CallStack readSequence(Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        Map<Object, Object> pool = new HashMap<>();
+        CallStack top = null;
+        CallStack current = null;
+        while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+            if (jsonReader.peek() != JsonToken.STRING)
+                throw new IOException("Unexpected " + jsonReader.peek() + " at " + jsonReader.getPath());
+            String brackets = jsonReader.nextString();
+            for (int i = 0; i < brackets.length(); i++) {
+                char c = brackets.charAt(i);
+                if (c == '(') {
+                    MethodDescription method = MethodDescription.readJson(jsonReader);
+                    method.intern(pool);
+                    if (current != null) {
+                        current = current.methodCall(method);
+                    } else if (top == null) {
+                        top = current = new CallStack(method);
+                    } else {
+                        throw new IOException("More than one call stack at " + jsonReader.getPath());
+                    }
+                } else if (c == ')' && current != null) {
+                    current = current._parent;
+                } else {
+                    throw new IOException("Unexpected '" + c + "' at " + jsonReader.getPath());
+                }
+            }
+        }
+        return top;
+    }
+
+    private void writeSequence(Writer writer, JsonWriter jsonWriter) throws IOException {
+        writer.write('(');
+        _method.writeJson(jsonWriter);
+        writer.write(' ');
         for(Iterator<CallStack> iterator = _calls.iterator(); iterator.hasNext();) {
             CallStack callStack = iterator.next();
-            callStack.generate(buffer);
+            callStack.writeSequence(writer, jsonWriter);
             if(iterator.hasNext()) {
-                buffer.append(' ');
+                writer.write(' ');
             }
         }
-        buffer.append(')');
+        writer.write(')');
     }
 
     public String generateText() {
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class ClassDescription {
     private String _className;
@@ -48,5 +49,10 @@ public class ClassDescription {
         return _className.hashCode();
     }
 
+    void intern(Map<Object, Object> pool) {
+        _className = MethodDescription.intern(pool, _className);
+        _attributes = MethodDescription.internList(pool, _attributes);
+    }
+
     public static ClassDescription ANONYMOUS_CLASS = new ClassDescription(Constants.ANONYMOUS_CLASS_NAME,new ArrayList<>());
 }
@@ -4,14 +4,15 @@ import org.intellij.sequencer.Constants;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * &copy; fanhuagang@gmail.com
  * Created by van on 2020/3/22.
  */
 public class LambdaExprDescription extends MethodDescription {
-    private final String _enclosedMethodName;
-    private final List<String> _enclosedMethodArgTypes;
+    private String _enclosedMethodName;
+    private List<String> _enclosedMethodArgTypes;
 
     public LambdaExprDescription(MethodDescription methodDescription, String returnType, List<String> argNames, List<String> argTypes) {
         super(methodDescription.getClassDescription(), new ArrayList<>(), Constants.Lambda_Invoke,returnType, argNames, argTypes);
@@ -19,6 +20,13 @@ public class LambdaExprDescription extends MethodDescription {
         this._enclosedMethodArgTypes = methodDescription.getArgTypes();
     }
 
+    @Override
+    void intern(Map<Object, Object> pool) {
+        super.intern(pool);
+        _enclosedMethodName = intern(pool, _enclosedMethodName);
+        _enclosedMethodArgTypes = internList(pool, _enclosedMethodArgTypes);
+    }
+
     public String getEnclosedMethodName() {
         return _enclosedMethodName;
     }
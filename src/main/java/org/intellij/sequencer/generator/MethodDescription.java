@@ -1,11 +1,18 @@
 package org.intellij.sequencer.generator;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.intellij.sequencer.Constants;
 
 import java.util.*;
 
 public class MethodDescription {
+    private static final Gson GSON = new GsonBuilder().create();
+
     private ClassDescription _classDescription;
 
     private String _methodName;
@@ -42,7 +49,25 @@ public class MethodDescription {
     }
 
     public String toJson() {
-        return new GsonBuilder().create().toJson(this);
+        return GSON.toJson(this);
+    }
+
+    /**
+     * Write the same json as {@link #toJson()} without building the string.
+     */
+    void writeJson(JsonWriter writer) {
+        GSON.toJson(this, getClass(), writer);
+    }
+
+    /**
+     * Read the next json object of the reader as written by {@link #toJson()}, lambda expressions included.
+     */
+    public static MethodDescription readJson(JsonReader reader) {
+        JsonObject json = GSON.fromJson(reader, JsonObject.class);
+        JsonElement methodName = json.get("_methodName");
+        if (methodName != null && Objects.equals(methodName.getAsString(), Constants.Lambda_Invoke))
+            return GSON.fromJson(json, LambdaExprDescription.class);
+        return GSON.fromJson(json, MethodDescription.class);
     }
 
     public ClassDescription getClassDescription() {
@@ -102,6 +127,36 @@ public class MethodDescription {
         return _hashCode;
     }
 
+    /**
+     * Share equal strings and lists with the other methods read from the same file.
+     */
+    void intern(Map<Object, Object> pool) {
+        _classDescription.intern(pool);
+        _methodName = intern(pool, _methodName);
+        _attributes = internList(pool, _attributes);
+        _argNames = internList(pool, _argNames);
+        _argTypes = internList(pool, _argTypes);
+        _returnType = intern(pool, _returnType);
+    }
+
+    static List<String> internList(Map<Object, Object> pool, List<String> list) {
+        if (list == null)
+            return null;
+        List<String> interned = new ArrayList<>(list.size());
+        for (String string : list) {
+            interned.add(intern(pool, string));
+        }
+        return intern(pool, interned);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T intern(Map<Object, Object> pool, T value) {
+        if (value == null)
+            return null;
+        Object pooled = pool.putIfAbsent(value, value);
+        return pooled != null ? (T) pooled : value;
+    }
+
     static MethodDescription createMethodDescription(ClassDescription classDescription,
                                                      List<String> attributes, String methodName,
                                                      String returnType,
@@ -0,0 +1,251 @@
+package org.intellij.sequencer.generator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary alternative of the .sdt text. Every distinct string is stored once in a string table,
+ * the call tree follows in pre-order with varint references into the table.
+ * <pre>
+ * file    := MAGIC version strings tree
+ * strings := count (length utf8-bytes)*
+ * tree    := method count tree*
+ * method  := kind class-name class-attributes name attributes return-type arg-names arg-types [enclosed-name enclosed-arg-types]
+ * </pre>
+ * Strings are referenced by index + 1 and lists by size + 1, 0 stands for null.
+ */
+public class SequenceBinaryFormat {
+    public static final String EXTENSION = "sdb";
+
+    private static final byte[] MAGIC = {'S', 'D', 'B'};
+    private static final int VERSION = 1;
+    private static final int METHOD = 0;
+    private static final int LAMBDA = 1;
+    // far longer than any name or type, a longer string means a corrupt file
+    private static final int MAX_STRING_LENGTH = 1 << 20;
+
+    private SequenceBinaryFormat() {
+    }
+
+    /**
+     * @return true if the file starts with the binary format magic
+     */
+    public static boolean isBinary(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = new byte[MAGIC.length];
+            return in.read(header) == MAGIC.length && Arrays.equals(header, MAGIC);
+        }
+    }
+
+    public static void write(CallStack callStack, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        collectStrings(callStack, strings);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        writeVarInt(data, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(data, bytes.length);
+            data.write(bytes);
+        }
+        writeCallStack(data, callStack, strings);
+        data.flush();
+    }
+
+    /**
+     * @throws IOException if the file is not in the binary format, or it is corrupt or truncated
+     */
+    public static CallStack read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] header = new byte[MAGIC.length];
+        data.readFully(header);
+        if (!Arrays.equals(header, MAGIC))
+            throw new IOException("Not a SequenceDiagram binary file");
+        int version = data.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported SequenceDiagram binary version " + version);
+
+        // the counts are not trusted for allocation, a truncated file ends with an EOFException instead
+        int count = readVarInt(data);
+        List<String> stringList = new ArrayList<>();
+        byte[] buffer = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = readVarInt(data);
+            if (length > MAX_STRING_LENGTH)
+                throw new IOException("Bad string length " + length);
+            if (buffer.length < length)
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            data.readFully(buffer, 0, length);
+            stringList.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+        }
+        String[] strings = stringList.toArray(new String[0]);
+
+        CallStack callStack = new CallStack(readMethod(data, strings));
+        readCalls(data, callStack, strings);
+        return callStack;
+    }
+
+    private static void collectStrings(CallStack callStack, Map<String, Integer> strings) {
+        MethodDescription method = callStack.getMethod();
+        ClassDescription classDescription = method.getClassDescription();
+        addString(classDescription.getClassName(), strings);
+        addStrings(classDescription.getAttributes(), strings);
+        addString(method.getMethodName(), strings);
+        addStrings(method.getAttributes(), strings);
+        addString(method.getReturnType(), strings);
+        addStrings(method.getArgNames(), strings);
+        addStrings(method.getArgTypes(), strings);
+        if (method instanceof LambdaExprDescription) {
+            LambdaExprDescription lambda = (LambdaExprDescription) method;
+            addString(lambda.getEnclosedMethodName(), strings);
+            addStrings(lambda.getEnclosedMethodArgTypes(), strings);
+        }
+        for (CallStack call : callStack.getCalls()) {
+            collectStrings(call, strings);
+        }
+    }
+
+    private static void addStrings(List<String> list, Map<String, Integer> strings) {
+        if (list != null) {
+            for (String string : list) {
+                addString(string, strings);
+            }
+        }
+    }
+
+    private static void addString(String string, Map<String, Integer> strings) {
+        if (string != null && !strings.containsKey(string))
+            strings.put(string, strings.size());
+    }
+
+    private static void writeCallStack(DataOutputStream data, CallStack callStack, Map<String, Integer> strings) throws IOException {
+        MethodDescription method = callStack.getMethod();
+        ClassDescription classDescription = method.getClassDescription();
+        boolean lambda = method instanceof LambdaExprDescription;
+        data.writeByte(lambda ? LAMBDA : METHOD);
+        writeString(data, classDescription.getClassName(), strings);
+        writeStrings(data, classDescription.getAttributes(), strings);
+        writeString(data, method.getMethodName(), strings);
+        writeStrings(data, method.getAttributes(), strings);
+        writeString(data, method.getReturnType(), strings);
+        writeStrings(data, method.getArgNames(), strings);
+        writeStrings(data, method.getArgTypes(), strings);
+        if (lambda) {
+            writeString(data, ((LambdaExprDescription) method).getEnclosedMethodName(), strings);
+            writeStrings(data, ((LambdaExprDescription) method).getEnclosedMethodArgTypes(), strings);
+        }
+
+        List<CallStack> calls = callStack.getCalls();
+        writeVarInt(data, calls.size());
+        for (CallStack call : calls) {
+            writeCallStack(data, call, strings);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream data, List<String> list, Map<String, Integer> strings) throws IOException {
+        if (list == null) {
+            writeVarInt(data, 0);
+            return;
+        }
+        writeVarInt(data, list.size() + 1);
+        for (String string : list) {
+            writeString(data, string, strings);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String string, Map<String, Integer> strings) throws IOException {
+        writeVarInt(data, string == null ? 0 : strings.get(string) + 1);
+    }
+
+    /**
+     * Read the calls in pre-order without recursion, so a corrupt file cannot nest them deeper than the stack.
+     */
+    private static void readCalls(DataInputStream data, CallStack callStack, String[] strings) throws IOException {
+        Deque<CallStack> callStacks = new ArrayDeque<>();
+        Deque<Integer> remainingCalls = new ArrayDeque<>();
+        callStacks.push(callStack);
+        remainingCalls.push(readVarInt(data));
+        while (!callStacks.isEmpty()) {
+            int remaining = remainingCalls.pop();
+            if (remaining == 0) {
+                callStacks.pop();
+                continue;
+            }
+            remainingCalls.push(remaining - 1);
+            CallStack call = callStacks.peek().methodCall(readMethod(data, strings));
+            callStacks.push(call);
+            remainingCalls.push(readVarInt(data));
+        }
+    }
+
+    private static MethodDescription readMethod(DataInputStream data, String[] strings) throws IOException {
+        int kind = data.readUnsignedByte();
+        String className = readString(data, strings);
+        List<String> classAttributes = readStrings(data, strings);
+        ClassDescription classDescription = new ClassDescription(className,
+                classAttributes != null ? classAttributes : Collections.emptyList());
+        String methodName = readString(data, strings);
+        List<String> attributes = readStrings(data, strings);
+        String returnType = readString(data, strings);
+        List<String> argNames = readStrings(data, strings);
+        List<String> argTypes = readStrings(data, strings);
+        if (kind == LAMBDA) {
+            String enclosedMethodName = readString(data, strings);
+            List<String> enclosedMethodArgTypes = readStrings(data, strings);
+            MethodDescription enclosedMethod = new MethodDescription(classDescription, attributes, enclosedMethodName, null,
+                    Collections.emptyList(), enclosedMethodArgTypes != null ? enclosedMethodArgTypes : Collections.emptyList());
+            return new LambdaExprDescription(enclosedMethod, returnType, argNames, argTypes);
+        } else if (kind != METHOD) {
+            throw new IOException("Unknown method kind " + kind);
+        }
+        return new MethodDescription(classDescription, attributes, methodName, returnType, argNames, argTypes);
+    }
+
+    private static List<String> readStrings(DataInputStream data, String[] strings) throws IOException {
+        int size = readVarInt(data) - 1;
+        if (size < 0)
+            return null;
+        List<String> list = new ArrayList<>(Math.min(size, 16));
+        for (int i = 0; i < size; i++) {
+            list.add(readString(data, strings));
+        }
+        return list;
+    }
+
+    private static String readString(DataInputStream data, String[] strings) throws IOException {
+        int index = readVarInt(data) - 1;
+        if (index < 0)
+            return null;
+        if (index >= strings.length)
+            throw new IOException("Bad string reference " + index);
+        return strings[index];
+    }
+
+    private static void writeVarInt(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    /**
+     * @return the non-negative int written by {@link #writeVarInt(DataOutputStream, int)}
+     */
+    private static int readVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data.readUnsignedByte();
+            // the fifth byte holds the top 3 bits of a non-negative int
+            if (shift == 28 && b > 0x07)
+                throw new IOException("Malformed varint");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -1,31 +1,39 @@
 package org.intellij.sequencer.generator;
 
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.psi.*;
 import com.intellij.psi.search.searches.DefinitionsScopedSearch;
-import com.intellij.util.containers.Stack;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import org.intellij.sequencer.diagram.Info;
 import org.intellij.sequencer.generator.filters.ImplementClassFilter;
+import org.intellij.sequencer.generator.filters.InterfaceImplFilter;
 import org.intellij.sequencer.util.PsiUtil;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 
 public class SequenceGenerator extends JavaElementVisitor {
-    private final Stack<PsiCallExpression> _exprStack = new Stack<>();
-    private final Stack<CallStack> _callStack = new Stack<>();
     private static final Logger LOGGER = Logger.getInstance(SequenceGenerator.class.getName());
 
-    private final ImplementationFinder implementationFinder = new ImplementationFinder();
+    private static final Key<CachedValue<List<CallSite.Implementation>>> IMPLEMENTATIONS_KEY = Key.create("SequenceDiagram.Implementations");
+
     private CallStack topStack;
     private CallStack currentStack;
     private int depth;
     private final SequenceParams params;
+    private InterfaceImplFilter implFilter;
+    // the bindings made by a fork in source order, they are applied to the generator it was forked from
+    private List<CallSite.Implementation> forkBindings;
 
     public SequenceGenerator(SequenceParams params) {
         this.params = params;
+        this.implFilter = params.getInterfaceImplFilter();
     }
 
     public CallStack generate(PsiMethod psiMethod) {
@@ -49,7 +57,7 @@ public class SequenceGenerator extends JavaElementVisitor {
                     if (psiElement instanceof PsiMethod) {
                         if (alreadyInStack((PsiMethod) psiElement)) continue;
 
-                        if (!params.isSmartInterface() && params.getInterfaceImplFilter().allow((PsiMethod) psiElement))
+                        if (!params.isSmartInterface() && implFilter.allow((PsiMethod) psiElement))
                             methodAccept(psiElement);
                     }
                 }
@@ -57,7 +65,7 @@ public class SequenceGenerator extends JavaElementVisitor {
         } else {
             // resolve variable initializer
             if (params.isSmartInterface() && !PsiUtil.isExternal(containingClass)){
-                containingClass.accept(implementationFinder);
+                findImplementations(containingClass);
             }
 
             psiMethod.accept(this);
@@ -65,6 +73,53 @@ public class SequenceGenerator extends JavaElementVisitor {
         return topStack;
     }
 
+    /**
+     * Generate again only the parts of a call stack whose method body is one of the changed methods.
+     *
+     * @param callStack      previously generated call stack, it is left untouched
+     * @param changedMethods methods whose body changed since the call stack was generated
+     * @return a copy of the call stack with the calls of the changed methods generated again,
+     * or the call stack itself when none of them is part of it
+     */
+    public CallStack regenerate(CallStack callStack, Collection<PsiMethod> changedMethods) {
+        Map<MethodDescription, PsiMethod> changed = new HashMap<>();
+        for (PsiMethod psiMethod : changedMethods) {
+            if (psiMethod.isValid() && psiMethod.getContainingClass() != null)
+                changed.put(createMethod(psiMethod), psiMethod);
+        }
+
+        List<CallStack> affected = new ArrayList<>();
+        callStack.findExpandedCalls(changed.keySet(), params.getMaxDepth(), affected);
+        if (affected.isEmpty())
+            return callStack;
+
+        if (affected.get(0) == callStack) {
+            topStack = null;
+            depth = 0;
+            return generate(changed.get(callStack.getMethod()));
+        }
+
+        topStack = callStack.copy();
+        affected.clear();
+        topStack.findExpandedCalls(changed.keySet(), params.getMaxDepth(), affected);
+        for (CallStack call : affected) {
+            CallStack parent = call.getParent();
+            int callCount = parent.getCallCount();
+            currentStack = parent;
+            depth = call.getDepth();
+            PsiMethod psiMethod = changed.get(call.getMethod());
+            if (params.getMethodFilter().allow(psiMethod))
+                generate(psiMethod);
+            if (parent.getCallCount() > callCount) {
+                parent.replaceWithLastCall(call);
+            } else {
+                // the method is filtered out, recursive or does not resolve any more, its old calls are stale
+                parent.removeCall(call);
+            }
+        }
+        return topStack;
+    }
+
     private boolean alreadyInStack(PsiMethod psiMethod) {
         MethodDescription method = createMethod(psiMethod);
         return currentStack.isRecursive(method);
@@ -76,89 +131,140 @@ public class SequenceGenerator extends JavaElementVisitor {
             if (params.getMethodFilter().allow(method)) {
                 PsiClass containingClass = (method).getContainingClass();
                 if (params.isSmartInterface() && containingClass != null && !PsiUtil.isExternal(containingClass))
-                    containingClass.accept(implementationFinder);
+                    findImplementations(containingClass);
                 method.accept(this);
             }
         }
     }
 
-    public void visitElement(PsiElement psiElement) {
-        psiElement.acceptChildren(this);
-    }
-
     public void visitMethod(PsiMethod psiMethod) {
+        reportProgress(psiMethod);
         MethodDescription method = createMethod(psiMethod);
         if (makeMethodCallExceptCurrentStackIsRecursive(method)) return;
-        super.visitMethod(psiMethod);
+
+        CallSite.Scope callSites = CallSiteCollector.getCallSites(psiMethod);
+        CallStack methodStack = currentStack;
+        CallStack tailStack = replay(callSites, methodStack, callSites.getTail());
+        currentStack = tailStack != null ? tailStack : methodStack;
     }
 
-    @Override
-    public void visitCallExpression(PsiCallExpression callExpression) {
-        if (PsiUtil.isPipeline(callExpression)) {
-            _exprStack.push(callExpression);
-            _callStack.push(currentStack);
-
-            callExpression.getFirstChild().acceptChildren(this);
-
-            if (!_exprStack.isEmpty()) {
-                CallStack old = currentStack;
-                PsiCallExpression pop = _exprStack.pop();
-                currentStack = _callStack.pop();
-                findAbstractImplFilter(pop, pop.resolveMethod());
-                methodCall(pop.resolveMethod());
-                currentStack = old;
-            }
-            super.visitCallExpression(callExpression);
-        } else if (PsiUtil.isComplexCall(callExpression)) {
-            _exprStack.push(callExpression);
-            _callStack.push(currentStack);
-            super.visitCallExpression(callExpression);
-            if (!_exprStack.isEmpty()) {
-                CallStack old = currentStack;
-                PsiCallExpression pop = _exprStack.pop();
-                currentStack = _callStack.pop();
-                findAbstractImplFilter(pop, pop.resolveMethod());
-                methodCall(pop.resolveMethod());
-                currentStack = old;
-            }
-        } else {
-            PsiMethod psiMethod = callExpression.resolveMethod();
-            findAbstractImplFilter(callExpression, psiMethod);
-            methodCall(psiMethod);
-            super.visitCallExpression(callExpression);
-        }
+    /**
+     * Give the running {@link ProgressIndicator} a chance to cancel the generation and show the visited method.
+     *
+     * @param psiMethod method about to be visited
+     */
+    private void reportProgress(PsiMethod psiMethod) {
+        ProgressManager.checkCanceled();
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        if (indicator != null)
+            indicator.setText2(psiMethod.getName());
     }
 
     /**
-     * If the psiMethod's containing class is Interface or abstract, then try to find it's implement class.
+     * Replay the call sites recorded by {@link CallSiteCollector} under the given call stack,
+     * applying the filters of this generation.
      *
-     * @param callExpression expression
-     * @param psiMethod method
+     * @return the call stack of the tail scope, where the walk of the method body ended
      */
-    private void findAbstractImplFilter(PsiCallExpression callExpression, PsiMethod psiMethod) {
-        try {
-            PsiClass containingClass = psiMethod.getContainingClass();
-            if (PsiUtil.isAbstract(containingClass)) {
-                String type = containingClass.getQualifiedName();
-                if (type == null) return;
+    private CallStack replay(CallSite.Scope scope, CallStack callStack, CallSite.Scope tail) {
+        if (depth == 0 && params.isSmartInterface())
+            return replayConcurrently(scope, callStack, tail);
+
+        CallStack tailStack = scope == tail ? callStack : null;
+        for (CallSite site : scope.getSites()) {
+            CallStack siteTail = replay(site, callStack, tail);
+            if (siteTail != null)
+                tailStack = siteTail;
+        }
+        return tailStack;
+    }
 
-                PsiMethodCallExpression psiMethodCallExpression = (PsiMethodCallExpression) callExpression;
-                PsiExpression qualifierExpression = psiMethodCallExpression.getMethodExpression().getQualifierExpression();
+    /**
+     * Like {@link #replay(CallSite.Scope, CallStack, CallSite.Scope)}, but each call is generated concurrently
+     * by its own generator into a fork of the call stack. The forks are moved back in source order.
+     * <p>
+     * A forked call sees the implementations bound before it in source order, except the ones bound below
+     * the calls before it, and binds into its own copy of them. The bindings of all sites are applied
+     * afterwards in source order, so they end up as after a sequential generation.
+     */
+    private CallStack replayConcurrently(CallSite.Scope scope, CallStack callStack, CallSite.Scope tail) {
+        List<CallSite> sites = scope.getSites();
+        List<CallStack> forks = new ArrayList<>(sites.size());
+        List<SequenceGenerator> generators = new ArrayList<>(sites.size());
+        List<Runnable> calls = new ArrayList<>();
+        InterfaceImplFilter bound = implFilter.copy();
+        CallStack tailStack = scope == tail ? callStack : null;
+        for (CallSite site : sites) {
+            CallStack fork = callStack.fork();
+            forks.add(fork);
+            if (site instanceof CallSite.Call) {
+                PsiMethod psiMethod = ((CallSite.Call) site).getMethod();
+                SequenceGenerator generator = fork(fork, bound.copy());
+                generators.add(generator);
+                calls.add(() -> generator.methodCall(psiMethod));
+            } else {
+                // replayed in place, the calls after it see its bindings
+                SequenceGenerator generator = fork(fork, bound);
+                generators.add(generator);
+                CallStack siteTail = generator.replay(site, fork, tail);
+                if (siteTail != null)
+                    tailStack = siteTail;
+            }
+        }
 
-                if (qualifierExpression == null) return;
+        JobLauncher.getJobLauncher().invokeConcurrentlyUnderProgress(calls,
+                ProgressManager.getInstance().getProgressIndicator(), call -> {
+                    call.run();
+                    return true;
+                });
 
-                PsiType psiType = qualifierExpression.getType();
+        for (CallStack fork : forks) {
+            callStack.adoptCalls(fork);
+        }
+        for (SequenceGenerator generator : generators) {
+            for (CallSite.Implementation implementation : generator.forkBindings) {
+                bind(implementation.getFace(), implementation.getImpl());
+            }
+        }
+        currentStack = callStack;
+        return tailStack;
+    }
 
-                if (psiType == null) return;
+    private CallStack replay(CallSite site, CallStack callStack, CallSite.Scope tail) {
+        currentStack = callStack;
+        if (site instanceof CallSite.Call) {
+            methodCall(((CallSite.Call) site).getMethod());
+        } else if (site instanceof CallSite.Implementation) {
+            CallSite.Implementation implementation = (CallSite.Implementation) site;
+            if (params.isSmartInterface() || !implementation.isSmartInterfaceOnly())
+                bind(implementation.getFace(), implementation.getImpl());
+        } else if (site instanceof CallSite.Scope) {
+            CallSite.Scope nested = (CallSite.Scope) site;
+            if (makeMethodCallExceptCurrentStackIsRecursive(nested.getMethod()))
+                return null;
+            return replay(nested, currentStack, tail);
+        }
+        return null;
+    }
 
-                String impl = psiType.getCanonicalText();
+    /**
+     * @return a generator continuing this generation in the given fork of the current call stack,
+     * binding the implementations it finds into the given filter
+     */
+    private SequenceGenerator fork(CallStack callStack, InterfaceImplFilter implFilter) {
+        SequenceGenerator generator = new SequenceGenerator(params);
+        generator.topStack = topStack;
+        generator.currentStack = callStack;
+        generator.depth = depth;
+        generator.implFilter = implFilter;
+        generator.forkBindings = new ArrayList<>();
+        return generator;
+    }
 
-                if (!impl.startsWith(type))
-                    params.getInterfaceImplFilter().put(type, new ImplementClassFilter(impl));
-            }
-        } catch (Exception e) {
-            //ignore
-        }
+    private void bind(String face, String impl) {
+        implFilter.put(face, new ImplementClassFilter(impl));
+        if (forkBindings != null)
+            forkBindings.add(new CallSite.Implementation(face, impl, false));
     }
 
     private void methodCall(PsiMethod psiMethod) {
@@ -174,10 +280,10 @@ public class SequenceGenerator extends JavaElementVisitor {
             LOGGER.debug("- depth = " + depth + " method = " + psiMethod.getName());
             currentStack = oldStack;
         } else
-            currentStack.methodCall(createMethod(psiMethod));
+            currentStack.methodCall(createMethod(psiMethod), depth + 1);
     }
 
-    private MethodDescription createMethod(PsiMethod psiMethod) {
+    static MethodDescription createMethod(PsiMethod psiMethod) {
 
         ParamPair paramPair = extractParameters(psiMethod.getParameterList());
 
@@ -203,7 +309,7 @@ public class SequenceGenerator extends JavaElementVisitor {
                 paramPair.argNames, paramPair.argTypes);
     }
 
-    private ParamPair extractParameters(PsiParameterList parameterList) {
+    private static ParamPair extractParameters(PsiParameterList parameterList) {
         PsiParameter[] parameters = parameterList.getParameters();
         List<String> argNames = new ArrayList<>();
         List<String> argTypes = new ArrayList<>();
@@ -215,12 +321,12 @@ public class SequenceGenerator extends JavaElementVisitor {
         return new ParamPair(argNames, argTypes);
     }
 
-    private ClassDescription createClassDescription(PsiClass psiClass) {
+    private static ClassDescription createClassDescription(PsiClass psiClass) {
         return new ClassDescription(psiClass.getQualifiedName(),
                 createAttributes(psiClass.getModifierList(), PsiUtil.isExternal(psiClass)));
     }
 
-    private List<String> createAttributes(PsiModifierList psiModifierList, boolean external) {
+    private static List<String> createAttributes(PsiModifierList psiModifierList, boolean external) {
         if (psiModifierList == null)
             return Collections.emptyList();
 
@@ -237,54 +343,16 @@ public class SequenceGenerator extends JavaElementVisitor {
         return attributes;
     }
 
-    @Override
-    public void visitLocalVariable(PsiLocalVariable variable) {
-        PsiJavaCodeReferenceElement referenceElement = variable.getTypeElement().getInnermostComponentReferenceElement();
-
-        variableImplementationFinder(referenceElement, variable.getType(), variable.getInitializer());
-
-        super.visitLocalVariable(variable);
-    }
-
-    private void variableImplementationFinder(PsiJavaCodeReferenceElement referenceElement, PsiType psiType, PsiExpression initializer) {
-        if (referenceElement != null) {
-            PsiClass psiClass = (PsiClass) referenceElement.resolve();
-
-            if (PsiUtil.isAbstract(psiClass)) {
-                String type = psiType.getCanonicalText();
-                if (initializer instanceof PsiNewExpression) {
-                    PsiType initializerType = initializer.getType();
-                    if (initializerType != null) {
-                        String impl = initializerType.getCanonicalText();
-                        if (!type.equals(impl)) {
-                            params.getInterfaceImplFilter().put(type, new ImplementClassFilter(impl));
-                        }
-                    }
-
-                }
-            }
-        }
-    }
-
-    @Override
-    public void visitAssignmentExpression(PsiAssignmentExpression expression) {
-        PsiExpression re = expression.getRExpression();
-        if (params.isSmartInterface() && re instanceof PsiNewExpression) {
-            String face = Objects.requireNonNull(expression.getType()).getCanonicalText();
-            PsiType psiType = Objects.requireNonNull(expression.getRExpression()).getType();
-            String impl = Objects.requireNonNull(psiType).getCanonicalText();
-
-            params.getInterfaceImplFilter().put(face, new ImplementClassFilter(impl));
-
+    /**
+     * Bind the interfaces to the implementations the class initializes its variables with.
+     */
+    private void findImplementations(PsiClass psiClass) {
+        CachedValuesManager manager = CachedValuesManager.getManager(psiClass.getProject());
+        List<CallSite.Implementation> implementations =
+                manager.getCachedValue(psiClass, IMPLEMENTATIONS_KEY, () -> ImplementationFinder.collect(psiClass), false);
+        for (CallSite.Implementation implementation : implementations) {
+            bind(implementation.getFace(), implementation.getImpl());
         }
-        super.visitAssignmentExpression(expression);
-    }
-
-    @Override
-    public void visitLambdaExpression(PsiLambdaExpression expression) {
-        MethodDescription method = createMethod(expression);
-        if (makeMethodCallExceptCurrentStackIsRecursive(method)) return;
-        super.visitLambdaExpression(expression);
     }
 
     private boolean makeMethodCallExceptCurrentStackIsRecursive(MethodDescription method) {
@@ -294,12 +362,12 @@ public class SequenceGenerator extends JavaElementVisitor {
         } else {
             if (params.isNotAllowRecursion() && currentStack.isRecursive(method))
                 return true;
-            currentStack = currentStack.methodCall(method);
+            currentStack = currentStack.methodCall(method, depth);
         }
         return false;
     }
 
-    private MethodDescription createMethod(PsiLambdaExpression expression) {
+    static MethodDescription createMethod(PsiLambdaExpression expression) {
 
         ParamPair paramPair = extractParameters(expression.getParameterList());
 
@@ -318,15 +386,35 @@ public class SequenceGenerator extends JavaElementVisitor {
         return new LambdaExprDescription(enclosedMethod, returnType, paramPair.argNames, paramPair.argTypes);
     }
 
-    @Override
-    public void visitInstanceOfExpression(PsiInstanceOfExpression expression) {
-        super.visitInstanceOfExpression(expression);
-    }
+    /**
+     * Collects the implementations of a class and its supers once, the result is cached on the class
+     * until one of the visited files or the java structure of the project changes.
+     */
+    private static class ImplementationFinder extends JavaElementVisitor {
+        private final List<CallSite.Implementation> _implementations = new ArrayList<>();
+        private final Set<PsiFile> _files = new LinkedHashSet<>();
+
+        static CachedValueProvider.Result<List<CallSite.Implementation>> collect(PsiClass psiClass) {
+            ImplementationFinder finder = new ImplementationFinder();
+            psiClass.accept(finder);
+
+            List<Object> dependencies = new ArrayList<>(finder._files);
+            dependencies.add(PsiManager.getInstance(psiClass.getProject()).getModificationTracker().getJavaStructureModificationTracker());
+            if (finder._files.isEmpty())
+                dependencies.add(PsiModificationTracker.MODIFICATION_COUNT);
+            return CachedValueProvider.Result.create(Collections.unmodifiableList(finder._implementations), dependencies.toArray());
+        }
 
-    private class ImplementationFinder extends JavaElementVisitor {
+        private void put(String face, String impl) {
+            _implementations.add(new CallSite.Implementation(face, impl, false));
+        }
 
         @Override
         public void visitClass(PsiClass aClass) {
+            PsiFile containingFile = aClass.getContainingFile();
+            if (containingFile != null)
+                _files.add(containingFile);
+
             for (PsiClass psiClass : aClass.getSupers()) {
                 if (!PsiUtil.isExternal(psiClass))
                     psiClass.accept(this);
@@ -342,7 +430,9 @@ public class SequenceGenerator extends JavaElementVisitor {
             PsiTypeElement typeElement = field.getTypeElement();
             if (typeElement != null) {
                 PsiJavaCodeReferenceElement referenceElement = typeElement.getInnermostComponentReferenceElement();
-                variableImplementationFinder(referenceElement, field.getType(), field.getInitializer());
+                String impl = CallSiteCollector.findImplementation(referenceElement, field.getType(), field.getInitializer());
+                if (impl != null)
+                    put(field.getType().getCanonicalText(), impl);
             }
 
             super.visitField(field);
@@ -364,8 +454,7 @@ public class SequenceGenerator extends JavaElementVisitor {
                 String face = Objects.requireNonNull(expression.getType()).getCanonicalText();
                 String impl = Objects.requireNonNull(expression.getRExpression().getType()).getCanonicalText();
 
-                params.getInterfaceImplFilter().put(face, new ImplementClassFilter(impl));
-
+                put(face, impl);
             }
             super.visitAssignmentExpression(expression);
         }
@@ -3,9 +3,8 @@ package org.intellij.sequencer.generator;
 import org.intellij.sequencer.config.Configuration;
 import org.intellij.sequencer.config.ExcludeEntry;
 import org.intellij.sequencer.generator.filters.CompositeMethodFilter;
+import org.intellij.sequencer.generator.filters.ExcludeFilter;
 import org.intellij.sequencer.generator.filters.InterfaceImplFilter;
-import org.intellij.sequencer.generator.filters.PackageFilter;
-import org.intellij.sequencer.generator.filters.SingleClassFilter;
 
 import java.util.List;
 
@@ -21,19 +20,21 @@ public class SequenceParams {
 
     public SequenceParams() {
         List<ExcludeEntry> excludeList = Configuration.getInstance().getExcludeList();
+        ExcludeFilter excludeFilter = new ExcludeFilter();
         for (ExcludeEntry excludeEntry : excludeList) {
             if (!excludeEntry.isEnabled())
                 continue;
             String excludeName = excludeEntry.getExcludeName();
             if (excludeName.endsWith(PACKAGE_INDICATOR)) {
                 int index = excludeName.lastIndexOf(PACKAGE_INDICATOR);
-                _methodFilter.addFilter(new PackageFilter(excludeName.substring(0, index)));
+                excludeFilter.excludePackage(excludeName.substring(0, index), false);
             } else if (excludeName.endsWith(RECURSIVE_PACKAGE_INDICATOR)) {
                 int index = excludeName.lastIndexOf(RECURSIVE_PACKAGE_INDICATOR);
-                _methodFilter.addFilter(new PackageFilter(excludeName.substring(0, index), true));
+                excludeFilter.excludePackage(excludeName.substring(0, index), true);
             } else
-                _methodFilter.addFilter(new SingleClassFilter(excludeName));
+                excludeFilter.excludeClass(excludeName);
         }
+        _methodFilter.addFilter(excludeFilter);
     }
 
     public int getMaxDepth() {
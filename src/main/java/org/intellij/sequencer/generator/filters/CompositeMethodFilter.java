@@ -1,29 +1,73 @@
 package org.intellij.sequencer.generator.filters;
 
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Allows the methods all of its filters allow. The decision is cached on each method until its file changes,
+ * or a filter is added or removed.
+ */
 public class CompositeMethodFilter implements MethodFilter {
-    private List _filters = new ArrayList();
+    private final List<MethodFilter> _filters = new CopyOnWriteArrayList<>();
+    // every composite keeps its own decisions on the methods
+    private final Key<CachedValue<Decision>> _decisionKey = Key.create("SequenceDiagram.MethodFilter");
+    private volatile int _version;
 
-    public void addFilter(MethodFilter filter) {
+    public synchronized void addFilter(MethodFilter filter) {
         _filters.add(filter);
+        _version++;
     }
 
-    public void removeFilter(MethodFilter filter) {
+    public synchronized void removeFilter(MethodFilter filter) {
         _filters.remove(filter);
+        _version++;
     }
 
     public boolean allow(PsiMethod psiMethod) {
-        for(Iterator iterator = _filters.iterator(); iterator.hasNext();) {
-            MethodFilter methodFilter = (MethodFilter)iterator.next();
+        CachedValuesManager manager = CachedValuesManager.getManager(psiMethod.getProject());
+        Decision decision = manager.getCachedValue(psiMethod, _decisionKey, () -> decide(psiMethod), false);
+        if (decision.version != _version) {
+            // made by the filters before one was added or removed
+            psiMethod.putUserData(_decisionKey, null);
+            decision = manager.getCachedValue(psiMethod, _decisionKey, () -> decide(psiMethod), false);
+        }
+        return decision.allowed;
+    }
+
+    private CachedValueProvider.Result<Decision> decide(PsiMethod psiMethod) {
+        // read before the filters, a filter changed meanwhile makes the decision stale
+        int version = _version;
+        Decision decision = new Decision(version, allowByFilters(psiMethod));
+        PsiFile containingFile = psiMethod.getContainingFile();
+        return CachedValueProvider.Result.create(decision,
+                containingFile != null ? containingFile : PsiModificationTracker.MODIFICATION_COUNT);
+    }
+
+    private boolean allowByFilters(PsiMethod psiMethod) {
+        for(Iterator<MethodFilter> iterator = _filters.iterator(); iterator.hasNext();) {
+            MethodFilter methodFilter = iterator.next();
             if(!methodFilter.allow(psiMethod))
                 return false;
         }
         return true;
     }
 
+    private static class Decision {
+        private final int version;
+        private final boolean allowed;
+
+        private Decision(int version, boolean allowed) {
+            this.version = version;
+            this.allowed = allowed;
+        }
+    }
 }
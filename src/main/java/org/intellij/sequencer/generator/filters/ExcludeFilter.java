@@ -0,0 +1,81 @@
+package org.intellij.sequencer.generator.filters;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import org.intellij.sequencer.Constants;
+import org.intellij.sequencer.util.PsiUtil;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The exclude list compiled into one filter, with the same decisions as a {@link PackageFilter} or
+ * {@link SingleClassFilter} per entry. Package names and class names are kept in sets, the packages
+ * excluded with their sub packages in a prefix trie. It is not memoized itself, the decisions are cached
+ * on each method by the {@link CompositeMethodFilter} of the {@link org.intellij.sequencer.generator.SequenceParams}.
+ */
+public class ExcludeFilter implements MethodFilter {
+    private final Set<String> _packageNames = new HashSet<>();
+    private final PrefixNode _packagePrefixes = new PrefixNode();
+    private final Set<String> _classNames = new HashSet<>();
+
+    public void excludePackage(String packageName, boolean recursive) {
+        if (recursive)
+            _packagePrefixes.add(packageName);
+        else
+            _packageNames.add(packageName);
+    }
+
+    public void excludeClass(String className) {
+        _classNames.add(className);
+    }
+
+    public boolean allow(PsiMethod psiMethod) {
+        if (!_packageNames.isEmpty() || !_packagePrefixes.isEmpty()) {
+            String packageName = PsiUtil.getPackageName(psiMethod);
+            if (packageName != null && (_packageNames.contains(packageName) || _packagePrefixes.matchesPrefixOf(packageName)))
+                return false;
+        }
+        PsiClass containingClass = psiMethod.getContainingClass();
+        if (containingClass == null || _classNames.isEmpty())
+            return true;
+        String className = containingClass.getQualifiedName();
+        if (className == null)
+            return !_classNames.contains(Constants.ANONYMOUS_CLASS_NAME);
+        return !_classNames.contains(className);
+    }
+
+    private static class PrefixNode {
+        private final Map<Character, PrefixNode> _children = new HashMap<>();
+        private boolean _end;
+
+        void add(String prefix) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node._children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+            }
+            node._end = true;
+        }
+
+        boolean isEmpty() {
+            return !_end && _children.isEmpty();
+        }
+
+        /**
+         * @return true if one of the prefixes starts the text
+         */
+        boolean matchesPrefixOf(String text) {
+            PrefixNode node = this;
+            for (int i = 0; !node._end; i++) {
+                if (i == text.length())
+                    return false;
+                node = node._children.get(text.charAt(i));
+                if (node == null)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -1,32 +1,71 @@
 package org.intellij.sequencer.generator.filters;
 
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiMethod;
+import org.intellij.sequencer.Constants;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * &copy; fanhuagang@gmail.com
  * Created by van on 17/10/2016.
  */
 public class InterfaceImplFilter implements MethodFilter {
-    private HashMap<String, MethodFilter> filters = new HashMap<String, MethodFilter>();
+    private final Map<String, MethodFilter> filters = new ConcurrentHashMap<>();
+    // implementation class name -> number of interfaces bound to it, answers allow() for the ImplementClassFilters
+    private final Map<String, Integer> implementations = new ConcurrentHashMap<>();
+    private volatile int otherFilters;
 
-    public void clear() {
+    public synchronized void clear() {
         filters.clear();
+        implementations.clear();
+        otherFilters = 0;
     }
 
-    public void put(String key, MethodFilter filter) {
-        filters.put(key, filter);
+    public synchronized void put(String key, MethodFilter filter) {
+        MethodFilter old = filters.put(key, filter);
+        if (old != null)
+            index(old, -1);
+        index(filter, 1);
+    }
+
+    /**
+     * @return a filter with the same bindings, changed independently of this one
+     */
+    public synchronized InterfaceImplFilter copy() {
+        InterfaceImplFilter copy = new InterfaceImplFilter();
+        for (Map.Entry<String, MethodFilter> entry : filters.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
     }
 
     public MethodFilter get(String key) {
         return filters.get(key);
     }
 
+    private void index(MethodFilter filter, int delta) {
+        if (filter instanceof ImplementClassFilter) {
+            implementations.merge(((ImplementClassFilter) filter).getClassName(), delta,
+                    (count, d) -> count + d == 0 ? null : count + d);
+        } else {
+            otherFilters += delta;
+        }
+    }
+
     @Override
     public boolean allow(PsiMethod psiMethod) {
+        PsiClass containingClass = psiMethod.getContainingClass();
+        if (containingClass != null) {
+            String className = containingClass.getQualifiedName();
+            if (implementations.containsKey(className != null ? className : Constants.ANONYMOUS_CLASS_NAME))
+                return true;
+        }
+        if (otherFilters == 0)
+            return false;
         for (MethodFilter filter : filters.values()) {
-            if(filter.allow(psiMethod)) {
+            if(!(filter instanceof ImplementClassFilter) && filter.allow(psiMethod)) {
                 return true;
             }
         }
@@ -10,6 +10,10 @@ public class SingleClassFilter implements MethodFilter {
         _className = className;
     }
 
+    public String getClassName() {
+        return _className;
+    }
+
     public boolean allow(PsiMethod psiMethod) {
         if(_className.equals(Constants.ANONYMOUS_CLASS_NAME) &&
               psiMethod.getContainingClass().getQualifiedName() == null)
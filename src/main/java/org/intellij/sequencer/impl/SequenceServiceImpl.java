@@ -48,10 +48,7 @@ public class SequenceServiceImpl implements SequenceService, SequenceNavigable {
     public void showSequence(@NotNull SequenceParams params, @NotNull PsiElement psiElement) {
 
         final SequencePanel sequencePanel = new SequencePanel(this, psiElement, params);
-        Runnable postAction = () -> {
-            sequencePanel.generate();
-            addSequencePanel(sequencePanel);
-        };
+        Runnable postAction = () -> sequencePanel.generate(() -> addSequencePanel(sequencePanel));
         if (_toolWindow.isActive())
             _toolWindow.show(postAction);
         else
@@ -220,6 +217,7 @@ public class SequenceServiceImpl implements SequenceService, SequenceNavigable {
     private void addSequencePanel(final SequencePanel sequencePanel) {
         ContentManager contentManager = _toolWindow.getContentManager();
         final Content content =  contentManager.getFactory().createContent(sequencePanel, sequencePanel.getTitleName(), false);
+        content.setDisposer(sequencePanel);
         contentManager.addContent(content);
         contentManager.setSelectedContent(content);
     }
@@ -0,0 +1,165 @@
+package org.intellij.sequencer.util;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image row by row, so an image too large to be held in memory can be encoded from strips.
+ * The rows are written as 8 bit RGBA, filtered by their difference to the row above.
+ */
+public class StreamingPngWriter implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_UP = 2;
+    private static final int MAX_CHUNK_SIZE = 1 << 16;
+
+    private final DataOutputStream _out;
+    private final int _width;
+    private final int _height;
+    private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+    private final DeflaterOutputStream _data;
+    private final int[] _pixels;
+    private byte[] _row;
+    private byte[] _previousRow;
+    private int _rowCount;
+
+    public StreamingPngWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Empty image " + width + "x" + height);
+        _out = new DataOutputStream(out);
+        _width = width;
+        _height = height;
+        _data = new DeflaterOutputStream(new DataChunkOutputStream(), _deflater, MAX_CHUNK_SIZE);
+        _pixels = new int[width];
+        _row = new byte[width * 4];
+        _previousRow = new byte[width * 4];
+
+        _out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8;
+        header[9] = COLOR_TYPE_RGBA;
+        // compression, filter and interlace methods
+        header[10] = 0;
+        header[11] = 0;
+        header[12] = 0;
+        writeChunk("IHDR", header, header.length);
+    }
+
+    /**
+     * Write the next rows of the image from the top rows of the strip, which is as wide as the image.
+     */
+    public void writeRows(BufferedImage strip, int rows) throws IOException {
+        if (strip.getWidth() != _width)
+            throw new IllegalArgumentException("Strip width " + strip.getWidth() + " instead of " + _width);
+        if (_rowCount + rows > _height)
+            throw new IllegalArgumentException("More than " + _height + " rows");
+        for (int y = 0; y < rows; y++) {
+            if (strip.getType() == BufferedImage.TYPE_INT_ARGB)
+                strip.getRaster().getDataElements(0, y, _width, 1, _pixels);
+            else
+                strip.getRGB(0, y, _width, 1, _pixels, 0, _width);
+            for (int x = 0, i = 0; x < _width; x++, i += 4) {
+                int argb = _pixels[x];
+                _row[i] = (byte) (argb >> 16);
+                _row[i + 1] = (byte) (argb >> 8);
+                _row[i + 2] = (byte) argb;
+                _row[i + 3] = (byte) (argb >>> 24);
+            }
+            _data.write(FILTER_UP);
+            writeFiltered();
+            byte[] swap = _previousRow;
+            _previousRow = _row;
+            _row = swap;
+            _rowCount++;
+        }
+    }
+
+    private void writeFiltered() throws IOException {
+        // the previous row is replaced by the differences, it is overwritten by the next row anyway
+        for (int i = 0; i < _row.length; i++) {
+            _previousRow[i] = (byte) (_row[i] - _previousRow[i]);
+        }
+        _data.write(_previousRow);
+    }
+
+    /**
+     * Write the end of the image and close the output stream, all of the rows must have been written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            _data.finish();
+            _data.flush();
+            if (_rowCount != _height)
+                throw new IOException("Written " + _rowCount + " of " + _height + " rows");
+            writeChunk("IEND", new byte[0], 0);
+            _out.flush();
+        } finally {
+            _deflater.end();
+            _out.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        _out.writeInt(length);
+        _out.write(typeBytes);
+        _out.write(data, 0, length);
+        _out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the deflated rows into IDAT chunks.
+     */
+    private class DataChunkOutputStream extends OutputStream {
+        private final byte[] _buffer = new byte[MAX_CHUNK_SIZE];
+        private int _size;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_size == _buffer.length)
+                flush();
+            _buffer[_size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_size == _buffer.length)
+                    flush();
+                int count = Math.min(len, _buffer.length - _size);
+                System.arraycopy(b, off, _buffer, _size, count);
+                _size += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_size > 0) {
+                writeChunk("IDAT", _buffer, _size);
+                _size = 0;
+            }
+        }
+    }
+}
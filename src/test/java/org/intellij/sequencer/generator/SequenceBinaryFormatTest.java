@@ -0,0 +1,78 @@
+package org.intellij.sequencer.generator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SequenceBinaryFormatTest {
+
+    @Test
+    public void writeAndReadBack() throws IOException {
+        CallStack callStack = createCallStack();
+
+        CallStack read = SequenceBinaryFormat.read(new ByteArrayInputStream(write(callStack)));
+
+        assertEquals(callStack.generateSequence(), read.generateSequence());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() {
+        byte[] bytes = write(createCallStack());
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void corruptCountsAreRejected() {
+        // string count of 2^31 + 127, overflows an int
+        assertRejected(new byte[]{'S', 'D', 'B', 1, (byte) 0xFF, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08});
+        // huge string count without the strings
+        assertRejected(new byte[]{'S', 'D', 'B', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        // one string of 2^28 bytes
+        assertRejected(new byte[]{'S', 'D', 'B', 1, 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+    }
+
+    private static CallStack createCallStack() {
+        ClassDescription service = new ClassDescription("a.b.Service", Collections.singletonList("public"));
+        ClassDescription repository = new ClassDescription("a.b.Repository", Collections.emptyList());
+        MethodDescription run = new MethodDescription(service, Collections.singletonList("public"), "run",
+                "void", Collections.emptyList(), Collections.emptyList());
+        MethodDescription find = new MethodDescription(repository, Collections.emptyList(), "find",
+                "java.util.List<java.lang.String>", Collections.singletonList("id"), Collections.singletonList("long"));
+        MethodDescription lambda = new LambdaExprDescription(run, "java.lang.Runnable",
+                Collections.emptyList(), Collections.emptyList());
+
+        CallStack callStack = new CallStack(run);
+        CallStack findCall = callStack.methodCall(find);
+        findCall.methodCall(find);
+        callStack.methodCall(lambda).methodCall(find);
+        return callStack;
+    }
+
+    private static byte[] write(CallStack callStack) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            SequenceBinaryFormat.write(callStack, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            SequenceBinaryFormat.read(new ByteArrayInputStream(bytes));
+            fail("Read " + bytes.length + " corrupt bytes");
+        } catch (IOException expected) {
+            // corrupt or truncated
+        }
+    }
+}